@@ -44,8 +44,12 @@ import org.jephyr.common.agent.ClassNameAwareClassAdapter;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
+import static org.jephyr.common.agent.ConstantPoolScanner.hasUtf8;
+
 final class ActiveObjectClassFileTransformer implements ClassFileTransformer {
 
+    private static final String ACTIVE_OBJECT_DESC = "Lorg/jephyr/activeobject/annotation/ActiveObject;";
+
     private final Predicate<String> classNamePredicate;
     private final Instrumentation instrumentation;
 
@@ -58,13 +62,20 @@ final class ActiveObjectClassFileTransformer implements ClassFileTransformer {
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
             ProtectionDomain protectionDomain, byte[] classfileBuffer) {
         try {
+            if (className != null && !classNamePredicate.test(className) ||
+                    !hasUtf8(classfileBuffer, ACTIVE_OBJECT_DESC)) {
+                return null;
+            }
             ClassWriter writer = new ClassWriter(0);
             ClassReader reader = new ClassReader(classfileBuffer);
             ActiveObjectClassAdapter cv = new ActiveObjectClassAdapter(writer);
             reader.accept(new ClassNameAwareClassAdapter(classNamePredicate, cv, writer), 0);
 
             Collection<ClassEntry> classEntries = cv.classEntries;
-            if (classEntries != null && !classEntries.isEmpty()) {
+            if (classEntries == null) {
+                return null;
+            }
+            if (!classEntries.isEmpty()) {
                 File file = Files.createTempFile(null, null).toFile();
                 file.deleteOnExit();
                 Manifest manifest = new Manifest();
@@ -28,22 +28,16 @@ import java.io.IOException;
 import java.lang.instrument.Instrumentation;
 import java.util.Properties;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
+import static org.jephyr.common.agent.AgentUtils.getClassNamePredicate;
 import static org.jephyr.common.agent.AgentUtils.parseArgs;
 
 public final class Main {
 
     public static void premain(String agentArgs, Instrumentation inst) throws IOException {
         Properties props = parseArgs(agentArgs);
-        Pattern includes = getPattern(props.getProperty("includes"));
-        Pattern excludes = getPattern(props.getProperty("excludes"));
-        Predicate<String> classNamePredicate = t -> (includes == null || includes.matcher(t).find()) &&
-                (excludes == null || !excludes.matcher(t).find());
+        Predicate<String> classNamePredicate =
+                getClassNamePredicate(props.getProperty("includes"), props.getProperty("excludes"));
         inst.addTransformer(new ActiveObjectClassFileTransformer(classNamePredicate, inst));
     }
-
-    private static Pattern getPattern(String regex) {
-        return regex == null ? null : Pattern.compile(regex);
-    }
 }
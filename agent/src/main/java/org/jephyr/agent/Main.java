@@ -0,0 +1,102 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.agent;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+import org.jephyr.common.agent.CachingClassFileTransformer;
+import org.jephyr.easyflow.instrument.EasyFlowClassAdapter;
+import org.jephyr.easyflow.instrument.SuspendableMethodIndex;
+
+import static org.jephyr.common.agent.AgentUtils.getClassNamePredicate;
+import static org.jephyr.common.agent.AgentUtils.getConfiguration;
+import static org.jephyr.common.agent.AgentUtils.getPattern;
+import static org.jephyr.common.agent.AgentUtils.parseArgs;
+import static org.jephyr.common.agent.AgentUtils.parseMapping;
+
+public final class Main {
+
+    private static final String DEFAULT_TRANSFORMERS = "remapping;activeobject;easyflow";
+
+    public static void premain(String agentArgs, Instrumentation inst) throws IOException {
+        Properties props = parseArgs(agentArgs);
+        Collection<String> transformers =
+                Arrays.asList(props.getProperty("transformers", DEFAULT_TRANSFORMERS).split(";"));
+
+        Predicate<String> remappingPredicate = null;
+        if (transformers.contains("remapping")) {
+            remappingPredicate = getClassNamePredicate(props.getProperty("remapping.includes"),
+                    props.getProperty("remapping.excludes"));
+        }
+        Predicate<String> activeObjectPredicate = null;
+        if (transformers.contains("activeobject")) {
+            activeObjectPredicate = getClassNamePredicate(props.getProperty("activeobject.includes"),
+                    props.getProperty("activeobject.excludes"));
+        }
+        String index = props.getProperty("easyflow.index");
+        int flags = getFlags(props);
+
+        ClassFileTransformer transformer = new PipelineClassFileTransformer(remappingPredicate,
+                parseMapping(props.getProperty("remapping.mapping")), activeObjectPredicate, inst,
+                transformers.contains("easyflow"), getPattern(props.getProperty("easyflow.methods")),
+                index == null ? null : SuspendableMethodIndex.load(Paths.get(index)), flags);
+        String cache = props.getProperty("cache");
+        if (cache != null) {
+            if (activeObjectPredicate != null) {
+                System.err.println("Ignoring cache " + cache + " because activeobject transformer is enabled");
+            } else if ((flags & EasyFlowClassAdapter.DESUGAR_LAMBDAS) != 0) {
+                System.err.println("Ignoring cache " + cache + " because easyflow.desugarLambdas is enabled");
+            } else {
+                transformer = new CachingClassFileTransformer(transformer, Paths.get(cache),
+                        getConfiguration(props, Main.class));
+            }
+        }
+        inst.addTransformer(transformer);
+    }
+
+    private static int getFlags(Properties props) {
+        int flags = 0;
+        if (Boolean.parseBoolean(props.getProperty("easyflow.cloneMethods"))) {
+            flags |= EasyFlowClassAdapter.CLONE_METHODS;
+        }
+        if (Boolean.parseBoolean(props.getProperty("easyflow.outlineSuspend"))) {
+            flags |= EasyFlowClassAdapter.OUTLINE_SUSPEND;
+        }
+        if (Boolean.parseBoolean(props.getProperty("easyflow.suspendableMonitors"))) {
+            flags |= EasyFlowClassAdapter.SUSPENDABLE_MONITORS;
+        }
+        if (Boolean.parseBoolean(props.getProperty("easyflow.desugarLambdas"))) {
+            flags |= EasyFlowClassAdapter.DESUGAR_LAMBDAS;
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.agent;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.jephyr.activeobject.instrument.ActiveObjectClassAdapter;
+import org.jephyr.common.agent.ClassNameAwareClassAdapter;
+import org.jephyr.easyflow.instrument.EasyFlowClassAdapter;
+import org.jephyr.easyflow.instrument.EasyFlowClassAdapter.ClassEntry;
+import org.jephyr.easyflow.instrument.MethodRef;
+import org.jephyr.easyflow.instrument.SuspendableMethodIndex;
+import org.jephyr.remapping.instrument.RemappingClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import static org.jephyr.common.agent.AgentUtils.appendToSystemClassLoaderSearch;
+import static org.jephyr.common.agent.AgentUtils.defineClasses;
+import static org.jephyr.common.agent.ConstantPoolScanner.hasMethodRefs;
+import static org.jephyr.common.agent.ConstantPoolScanner.hasUtf8;
+import static org.jephyr.common.agent.ConstantPoolScanner.hasUtf8Containing;
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+
+final class PipelineClassFileTransformer implements ClassFileTransformer {
+
+    private static final String ACTIVE_OBJECT_DESC = "Lorg/jephyr/activeobject/annotation/ActiveObject;";
+
+    private final Predicate<String> remappingPredicate;
+    private final Map<String, String> mapping;
+    private final Predicate<String> activeObjectPredicate;
+    private final Instrumentation instrumentation;
+    private final boolean easyFlow;
+    private final Pattern methodRefPattern;
+    private final SuspendableMethodIndex index;
+    private final int flags;
+
+    PipelineClassFileTransformer(Predicate<String> remappingPredicate, Map<String, String> mapping,
+            Predicate<String> activeObjectPredicate, Instrumentation instrumentation, boolean easyFlow,
+            Pattern methodRefPattern, SuspendableMethodIndex index, int flags) {
+        this.remappingPredicate = remappingPredicate;
+        this.mapping = mapping;
+        this.activeObjectPredicate = activeObjectPredicate;
+        this.instrumentation = instrumentation;
+        this.easyFlow = easyFlow;
+        this.methodRefPattern = methodRefPattern;
+        this.index = index;
+        this.flags = flags;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        try {
+            boolean remapping = remappingPredicate != null &&
+                    (className == null || remappingPredicate.test(className)) &&
+                    hasUtf8Containing(classfileBuffer, mapping.keySet());
+            boolean activeObject = activeObjectPredicate != null && className != null &&
+                    activeObjectPredicate.test(className) && hasUtf8(classfileBuffer, ACTIVE_OBJECT_DESC);
+            boolean easyFlow = this.easyFlow && className != null &&
+                    ((flags & EasyFlowClassAdapter.SUSPENDABLE_MONITORS) != 0 ||
+                            (methodRefPattern != null || index != null) && hasMethodRefs(classfileBuffer));
+            if (!remapping && !activeObject && !easyFlow) {
+                return null;
+            }
+            ClassReader reader = new ClassReader(classfileBuffer);
+            ClassWriter writer = new ClassWriter(0);
+            if (activeObject) {
+                ActiveObjectClassAdapter cv = new ActiveObjectClassAdapter(writer);
+                reader.accept(remapping ? newRemappingAdapter(cv) : cv, 0);
+                appendActiveObjectClasses(cv.classEntries);
+                if (!easyFlow) {
+                    return writer.toByteArray();
+                }
+                reader = new ClassReader(writer.toByteArray());
+                writer = new ClassWriter(0);
+                EasyFlowClassAdapter cv1 = newEasyFlowAdapter(className, writer);
+                reader.accept(cv1, EXPAND_FRAMES);
+                defineEasyFlowClasses(loader, protectionDomain, cv1.getClassEntries());
+            } else if (easyFlow) {
+                EasyFlowClassAdapter cv = newEasyFlowAdapter(className, writer);
+                reader.accept(remapping ? newRemappingAdapter(cv) : cv, EXPAND_FRAMES);
+                if (!remapping && !cv.isChanged()) {
+                    return null;
+                }
+                defineEasyFlowClasses(loader, protectionDomain, cv.getClassEntries());
+            } else {
+                reader.accept(newRemappingAdapter(writer), EXPAND_FRAMES);
+            }
+            return writer.toByteArray();
+        } catch (Throwable e) {
+            System.err.println("Failed to transform class " + className);
+            e.printStackTrace(System.err);
+            return null;
+        }
+    }
+
+    private ClassVisitor newRemappingAdapter(ClassVisitor cv) {
+        return new ClassNameAwareClassAdapter(remappingPredicate, new RemappingClassAdapter(mapping::get, cv), cv);
+    }
+
+    private EasyFlowClassAdapter newEasyFlowAdapter(String className, ClassVisitor cv) {
+        Predicate<MethodRef> methodRefPredicate;
+        if (index == null && methodRefPattern == null) {
+            methodRefPredicate = t -> false;
+        } else if (index == null) {
+            methodRefPredicate = t -> methodRefPattern.matcher(className + '.' + t.getName() + t.getDesc()).find();
+        } else if (methodRefPattern == null) {
+            methodRefPredicate = t -> index.contains(className, t.getName(), t.getDesc());
+        } else {
+            methodRefPredicate = t -> index.contains(className, t.getName(), t.getDesc()) ||
+                    methodRefPattern.matcher(className + '.' + t.getName() + t.getDesc()).find();
+        }
+        return new EasyFlowClassAdapter(methodRefPredicate, flags, cv);
+    }
+
+    private void appendActiveObjectClasses(Collection<ActiveObjectClassAdapter.ClassEntry> classEntries)
+            throws IOException {
+        if (classEntries == null || classEntries.isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (ActiveObjectClassAdapter.ClassEntry entry : classEntries) {
+            classes.put(entry.name, entry.bytes);
+        }
+        appendToSystemClassLoaderSearch(instrumentation, classes);
+    }
+
+    private static void defineEasyFlowClasses(ClassLoader loader, ProtectionDomain protectionDomain,
+            Collection<ClassEntry> classEntries) throws ReflectiveOperationException {
+        if (classEntries == null || classEntries.isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (ClassEntry entry : classEntries) {
+            classes.put(entry.name, entry.bytes);
+        }
+        defineClasses(loader, protectionDomain, classes);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.agent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.jephyr.activeobject.annotation.ActiveObject;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class PipelineClassFileTransformerTest {
+
+    private static final String CONTINUATION_IMPL = "org/jephyr/continuation/easyflow/ContinuationImpl";
+    private static final String OLD = Type.getInternalName(Old.class);
+    private static final String NEW = Type.getInternalName(New.class);
+
+    static class Old {
+    }
+
+    static class New {
+    }
+
+    static class Remapped {
+
+        void run(Old old) {
+            helper();
+        }
+
+        static void helper() {
+        }
+    }
+
+    static class Plain {
+
+        void run() {
+        }
+    }
+
+    @ActiveObject
+    static class Active {
+
+        private void run() {
+            helper();
+        }
+
+        static void helper() {
+        }
+    }
+
+    @Test
+    public void testRemappingBeforeEasyFlow() throws Exception {
+        ClassNode node = transform(Remapped.class, true, false, "\\.run\\(L" + Pattern.quote(NEW) + ";\\)V");
+
+        MethodNode run = getMethod(node, "run");
+        assertEquals(run.desc, "(L" + NEW + ";)V");
+        assertTrue(invokes(run, CONTINUATION_IMPL));
+
+        node = transform(Remapped.class, true, false, "\\.run\\(L" + Pattern.quote(OLD) + ";\\)V");
+        run = getMethod(node, "run");
+        assertEquals(run.desc, "(L" + NEW + ";)V");
+        assertFalse(invokes(run, CONTINUATION_IMPL));
+    }
+
+    @Test
+    public void testActiveObjectBeforeEasyFlow() throws Exception {
+        ClassNode node = transform(Active.class, false, true, "\\.run\\(\\)V");
+
+        boolean instrumented = false;
+        for (AnnotationNode annotation : node.invisibleAnnotations) {
+            if (annotation.desc.equals("Lorg/jephyr/activeobject/instrument/Instrumented;")) {
+                instrumented = true;
+            }
+        }
+        assertTrue(instrumented);
+        assertTrue(invokes(getMethod(node, "run"), CONTINUATION_IMPL));
+    }
+
+    @Test
+    public void testNothingToTransform() throws Exception {
+        PipelineClassFileTransformer transformer = new PipelineClassFileTransformer(t -> true,
+                Collections.singletonMap(OLD, NEW), null, null, false, null, null, 0);
+
+        assertNull(transformer.transform(getClass().getClassLoader(), Type.getInternalName(New.class), null, null,
+                getBytes(New.class)));
+    }
+
+    @Test
+    public void testEasyFlowUnchanged() throws Exception {
+        PipelineClassFileTransformer transformer = new PipelineClassFileTransformer(null, Collections.emptyMap(),
+                null, null, true, Pattern.compile("\\.run\\(\\)V"), null, 0);
+
+        assertNull(transformer.transform(getClass().getClassLoader(), Type.getInternalName(Plain.class), null, null,
+                getBytes(Plain.class)));
+    }
+
+    private static ClassNode transform(Class<?> cls, boolean remapping, boolean activeObject, String methods)
+            throws Exception {
+        Map<String, String> mapping = Collections.singletonMap(OLD, NEW);
+        PipelineClassFileTransformer transformer = new PipelineClassFileTransformer(remapping ? t -> true : null,
+                mapping, activeObject ? t -> true : null, newInstrumentation(), true, Pattern.compile(methods), null,
+                0);
+        byte[] bytes = transformer.transform(cls.getClassLoader(), Type.getInternalName(cls), null,
+                cls.getProtectionDomain(), getBytes(cls));
+        assertNotNull(bytes);
+        ClassNode node = new ClassNode();
+        new ClassReader(bytes).accept(node, 0);
+        return node;
+    }
+
+    private static Instrumentation newInstrumentation() {
+        return (Instrumentation) Proxy.newProxyInstance(PipelineClassFileTransformerTest.class.getClassLoader(),
+                new Class<?>[] { Instrumentation.class }, (proxy, method, args) -> null);
+    }
+
+    private static byte[] getBytes(Class<?> cls) throws IOException {
+        try (InputStream in = cls.getClassLoader().getResourceAsStream(Type.getInternalName(cls) + ".class")) {
+            ClassReader reader = new ClassReader(in);
+            return reader.b;
+        }
+    }
+
+    private static MethodNode getMethod(ClassNode node, String name) {
+        for (MethodNode method : node.methods) {
+            if (method.name.equals(name)) {
+                return method;
+            }
+        }
+        throw new AssertionError(name);
+    }
+
+    private static boolean invokes(MethodNode method, String owner) {
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof MethodInsnNode && ((MethodInsnNode) insn).owner.equals(owner)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -25,15 +25,35 @@
 package org.jephyr.common.agent;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
 
 public final class AgentUtils {
 
     private static final String KEY_VALUE_DELIM = "=";
     private static final String OPTION_DELIM = ",";
+    private static final String MAPPING_KEY_VALUE_DELIM = ":";
+    private static final String MAPPING_ENTRY_DELIM = ";";
 
     private AgentUtils() {
     }
@@ -75,4 +95,140 @@ public final class AgentUtils {
 
         return props;
     }
+
+    public static String getConfiguration(Properties props, Class<?> agentClass) {
+        StringBuilder sb = new StringBuilder();
+
+        CodeSource codeSource = agentClass.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation() != null) {
+            URL location = codeSource.getLocation();
+            sb.append(location);
+            try {
+                appendFileInfo(sb, new File(location.toURI()));
+            } catch (URISyntaxException | IllegalArgumentException ignored) {
+            }
+            sb.append('\n');
+        }
+
+        for (String key : new TreeSet<>(props.stringPropertyNames())) {
+            String value = props.getProperty(key);
+            sb.append(key).append('=').append(value);
+            appendFileInfo(sb, new File(value));
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    public static Pattern getPattern(String regex) {
+        return regex == null ? null : Pattern.compile(regex);
+    }
+
+    public static Predicate<String> getClassNamePredicate(String includes, String excludes) {
+        Pattern includesPattern = getPattern(includes);
+        Pattern excludesPattern = getPattern(excludes);
+        return t -> (includesPattern == null || includesPattern.matcher(t).find()) &&
+                (excludesPattern == null || !excludesPattern.matcher(t).find());
+    }
+
+    public static Map<String, String> parseMapping(String mapping) {
+        Map<String, String> map = new HashMap<>();
+        if (mapping == null) {
+            return map;
+        }
+
+        int length1 = MAPPING_KEY_VALUE_DELIM.length();
+        int length2 = MAPPING_ENTRY_DELIM.length();
+        int fromIndex = 0;
+        while (true) {
+            int index1 = mapping.indexOf(MAPPING_KEY_VALUE_DELIM, fromIndex);
+            String key = mapping.substring(fromIndex, index1);
+            fromIndex = index1 + length1;
+            int index2 = mapping.indexOf(MAPPING_ENTRY_DELIM, fromIndex);
+            if (index2 < 0) {
+                map.put(key, mapping.substring(fromIndex));
+                return map;
+            }
+            map.put(key, mapping.substring(fromIndex, index2));
+            fromIndex = index2 + length2;
+        }
+    }
+
+    public static void appendToSystemClassLoaderSearch(Instrumentation instrumentation, Map<String, byte[]> classes)
+            throws IOException {
+        File file = Files.createTempFile(null, null).toFile();
+        file.deleteOnExit();
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                JarEntry jarEntry = new JarEntry(entry.getKey() + ".class");
+                out.putNextEntry(jarEntry);
+                byte[] bytes = entry.getValue();
+                out.write(bytes, 0, bytes.length);
+                out.closeEntry();
+            }
+        }
+
+        instrumentation.appendToSystemClassLoaderSearch(new JarFile(file));
+    }
+
+    public static void defineClasses(ClassLoader loader, ProtectionDomain protectionDomain,
+            Map<String, byte[]> classes) throws ReflectiveOperationException {
+        if (loader == null) {
+            throw new IllegalArgumentException("Cannot define classes in the bootstrap class loader");
+        }
+        if (ClassLoaderMethods.defineClass == null) {
+            throw new IllegalAccessException("ClassLoader.defineClass is not accessible, " +
+                    "run with --add-opens java.base/java.lang=ALL-UNNAMED");
+        }
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String name = entry.getKey().replace('/', '.');
+            if (ClassLoaderMethods.findLoadedClass.invoke(loader, name) != null) {
+                continue;
+            }
+            byte[] bytes = entry.getValue();
+            try {
+                ClassLoaderMethods.defineClass.invoke(loader, name, bytes, 0, bytes.length, protectionDomain);
+            } catch (InvocationTargetException e) {
+                if (!(e.getCause() instanceof LinkageError) ||
+                        ClassLoaderMethods.findLoadedClass.invoke(loader, name) == null) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static void appendFileInfo(StringBuilder sb, File file) {
+        if (file.isFile()) {
+            sb.append(':').append(file.lastModified()).append(':').append(file.length());
+        }
+    }
+
+    private static final class ClassLoaderMethods {
+
+        static final Method findLoadedClass;
+        static final Method defineClass;
+
+        static {
+            Method findLoadedClass1;
+            Method defineClass1;
+            try {
+                findLoadedClass1 = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+                findLoadedClass1.setAccessible(true);
+                defineClass1 = ClassLoader.class.getDeclaredMethod("defineClass", String.class, byte[].class,
+                        int.class, int.class, ProtectionDomain.class);
+                defineClass1.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new Error(e);
+            } catch (RuntimeException e) {
+                // java.lang is not opened to this module on JDK 16 and later
+                findLoadedClass1 = null;
+                defineClass1 = null;
+            }
+            findLoadedClass = findLoadedClass1;
+            defineClass = defineClass1;
+        }
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.common.agent;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.util.Objects.requireNonNull;
+
+public final class CachingClassFileTransformer implements ClassFileTransformer {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final ClassFileTransformer transformer;
+    private final Path directory;
+    private final byte[] configuration;
+
+    public CachingClassFileTransformer(ClassFileTransformer transformer, Path directory, String configuration)
+            throws IOException {
+        this.transformer = requireNonNull(transformer);
+        this.directory = Files.createDirectories(directory);
+        this.configuration = configuration.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+        if (classBeingRedefined != null) {
+            return transformer.transform(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+        }
+
+        Path path = directory.resolve(getKey(className, classfileBuffer) + ".class");
+
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            return bytes.length == 0 ? null : bytes;
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            System.err.println("Failed to read cached class " + className);
+            e.printStackTrace(System.err);
+        }
+
+        byte[] bytes = transformer.transform(loader, className, classBeingRedefined, protectionDomain,
+                classfileBuffer);
+
+        try {
+            Path tempPath = Files.createTempFile(directory, null, null);
+            try {
+                Files.write(tempPath, bytes == null ? new byte[0] : bytes);
+                Files.move(tempPath, path, ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to cache class " + className);
+            e.printStackTrace(System.err);
+        }
+
+        return bytes;
+    }
+
+    private String getKey(String className, byte[] classfileBuffer) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(configuration);
+        if (className != null) {
+            digest.update(className.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update(classfileBuffer);
+        byte[] hash = digest.digest();
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
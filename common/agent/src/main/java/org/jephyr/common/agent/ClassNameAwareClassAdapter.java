@@ -27,7 +27,6 @@ package org.jephyr.common.agent;
 import java.util.function.Predicate;
 
 import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
 
 import static java.util.Objects.requireNonNull;
 import static org.objectweb.asm.Opcodes.ASM5;
@@ -35,10 +34,10 @@ import static org.objectweb.asm.Opcodes.ASM5;
 public final class ClassNameAwareClassAdapter extends DelegationClassAdapter {
 
     private final Predicate<String> predicate;
-    private final ClassWriter secondary;
+    private final ClassVisitor secondary;
     private boolean primary;
 
-    public ClassNameAwareClassAdapter(Predicate<String> predicate, ClassVisitor primary, ClassWriter secondary) {
+    public ClassNameAwareClassAdapter(Predicate<String> predicate, ClassVisitor primary, ClassVisitor secondary) {
         super(ASM5, primary);
         this.predicate = requireNonNull(predicate);
         this.secondary = secondary;
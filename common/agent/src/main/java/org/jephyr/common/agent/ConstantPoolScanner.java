@@ -0,0 +1,167 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.common.agent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+public final class ConstantPoolScanner {
+
+    private static final int UTF8 = 1;
+    private static final int INT = 3;
+    private static final int FLOAT = 4;
+    private static final int LONG = 5;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int STR = 8;
+    private static final int FIELD = 9;
+    private static final int METH = 10;
+    private static final int IMETH = 11;
+    private static final int NAME_TYPE = 12;
+    private static final int HANDLE = 15;
+    private static final int MTYPE = 16;
+    private static final int INDY = 18;
+
+    private ConstantPoolScanner() {
+    }
+
+    public static boolean hasMethodRefs(byte[] b) {
+        int n = readUnsignedShort(b, 8);
+        int offset = 10;
+        for (int i = 1; i < n; i++) {
+            int tag = b[offset];
+            if (tag == METH || tag == IMETH || tag == INDY) {
+                return true;
+            }
+            int size = getSize(b, offset, tag);
+            if (size < 0) {
+                return true;
+            }
+            offset += size;
+            if (tag == LONG || tag == DOUBLE) {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    public static boolean hasUtf8(byte[] b, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int n = readUnsignedShort(b, 8);
+        int offset = 10;
+        for (int i = 1; i < n; i++) {
+            int tag = b[offset];
+            if (tag == UTF8 && readUnsignedShort(b, offset + 1) == bytes.length &&
+                    indexOf(b, offset + 3, bytes.length, bytes) == 0) {
+                return true;
+            }
+            int size = getSize(b, offset, tag);
+            if (size < 0) {
+                return true;
+            }
+            offset += size;
+            if (tag == LONG || tag == DOUBLE) {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    public static boolean hasUtf8Containing(byte[] b, Collection<String> values) {
+        if (values.isEmpty()) {
+            return false;
+        }
+        byte[][] bytes = new byte[values.size()][];
+        int index = 0;
+        for (String value : values) {
+            bytes[index++] = value.getBytes(StandardCharsets.UTF_8);
+        }
+        int n = readUnsignedShort(b, 8);
+        int offset = 10;
+        for (int i = 1; i < n; i++) {
+            int tag = b[offset];
+            if (tag == UTF8) {
+                int length = readUnsignedShort(b, offset + 1);
+                for (byte[] bytes1 : bytes) {
+                    if (indexOf(b, offset + 3, length, bytes1) >= 0) {
+                        return true;
+                    }
+                }
+            }
+            int size = getSize(b, offset, tag);
+            if (size < 0) {
+                return true;
+            }
+            offset += size;
+            if (tag == LONG || tag == DOUBLE) {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    private static int getSize(byte[] b, int offset, int tag) {
+        switch (tag) {
+            case UTF8:
+                return 3 + readUnsignedShort(b, offset + 1);
+            case CLASS:
+            case STR:
+            case MTYPE:
+                return 3;
+            case HANDLE:
+                return 4;
+            case INT:
+            case FLOAT:
+            case FIELD:
+            case METH:
+            case IMETH:
+            case NAME_TYPE:
+            case INDY:
+                return 5;
+            case LONG:
+            case DOUBLE:
+                return 9;
+            default:
+                return -1;
+        }
+    }
+
+    private static int indexOf(byte[] b, int offset, int length, byte[] bytes) {
+        for (int i = 0, n = length - bytes.length; i <= n; i++) {
+            int j = 0;
+            while (j < bytes.length && b[offset + i + j] == bytes[j]) {
+                j++;
+            }
+            if (j == bytes.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int readUnsignedShort(byte[] b, int index) {
+        return (b[index] & 0xFF) << 8 | b[index + 1] & 0xFF;
+    }
+}
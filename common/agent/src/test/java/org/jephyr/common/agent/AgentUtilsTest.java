@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.common.agent;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.JarFile;
+
+import org.objectweb.asm.ClassWriter;
+import org.testng.annotations.Test;
+
+import static org.jephyr.common.agent.AgentUtils.appendToSystemClassLoaderSearch;
+import static org.jephyr.common.agent.AgentUtils.defineClasses;
+import static org.jephyr.common.agent.AgentUtils.getConfiguration;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.V1_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+
+public class AgentUtilsTest {
+
+    private static final String NAME = "org/jephyr/common/agent/Generated";
+
+    @Test
+    public void testDefineClasses() throws Exception {
+        ClassLoader loader = new ClassLoader(null) {};
+        defineClasses(loader, null, newClasses());
+
+        Class<?> cls = Class.forName(NAME.replace('/', '.'), false, loader);
+        assertSame(cls.getClassLoader(), loader);
+    }
+
+    @Test
+    public void testDefineClassesTwice() throws Exception {
+        ClassLoader loader = new ClassLoader(null) {};
+        defineClasses(loader, null, newClasses());
+        Class<?> cls = Class.forName(NAME.replace('/', '.'), false, loader);
+
+        defineClasses(loader, null, newClasses());
+        assertSame(Class.forName(NAME.replace('/', '.'), false, loader), cls);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDefineClassesInBootstrapLoader() throws Exception {
+        defineClasses(null, null, newClasses());
+    }
+
+    @Test
+    public void testAppendToSystemClassLoaderSearch() throws Exception {
+        JarFile[] jarFiles = new JarFile[1];
+        Instrumentation instrumentation = (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Instrumentation.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("appendToSystemClassLoaderSearch")) {
+                        jarFiles[0] = (JarFile) args[0];
+                    }
+                    return null;
+                });
+        appendToSystemClassLoaderSearch(instrumentation, newClasses());
+
+        try (JarFile jarFile = jarFiles[0]) {
+            assertNotNull(jarFile.getEntry(NAME + ".class"));
+        }
+    }
+
+    @Test
+    public void testGetConfiguration() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("flags", "1");
+        props.setProperty("includes", "^a/");
+        String configuration = getConfiguration(props, AgentUtilsTest.class);
+
+        assertEquals(getConfiguration(props, AgentUtilsTest.class), configuration);
+        props.setProperty("flags", "2");
+        String configuration1 = getConfiguration(props, AgentUtilsTest.class);
+        assertNotEquals(configuration1, configuration);
+        props.setProperty("includes", "^b/");
+        assertNotEquals(getConfiguration(props, AgentUtilsTest.class), configuration1);
+    }
+
+    @Test
+    public void testGetConfigurationWithFile() throws Exception {
+        Path file = Files.createTempFile(null, null);
+        try {
+            Properties props = new Properties();
+            props.setProperty("index", file.toString());
+            String configuration = getConfiguration(props, AgentUtilsTest.class);
+
+            Files.write(file, new byte[] { 1 });
+            assertNotEquals(getConfiguration(props, AgentUtilsTest.class), configuration);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static Map<String, byte[]> newClasses() {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(V1_8, ACC_PUBLIC | ACC_SUPER, NAME, null, "java/lang/Object", null);
+        writer.visitEnd();
+        return Collections.singletonMap(NAME, writer.toByteArray());
+    }
+}
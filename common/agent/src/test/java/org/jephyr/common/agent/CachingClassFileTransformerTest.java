@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.common.agent;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class CachingClassFileTransformerTest {
+
+    private static final byte[] INPUT = { 1, 2, 3 };
+    private static final byte[] OUTPUT = { 4, 5, 6 };
+
+    private final AtomicInteger transforms = new AtomicInteger();
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory(null);
+        transforms.set(0);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Path[] paths = Files.walk(directory).sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        ClassFileTransformer transformer = newTransformer("a", OUTPUT);
+
+        assertEquals(transformer.transform(null, "C", null, null, INPUT), OUTPUT);
+        assertEquals(transformer.transform(null, "C", null, null, INPUT), OUTPUT);
+        assertEquals(newTransformer("a", null).transform(null, "C", null, null, INPUT), OUTPUT);
+        assertEquals(transforms.get(), 1);
+    }
+
+    @Test
+    public void testConfiguration() throws Exception {
+        assertEquals(newTransformer("a", OUTPUT).transform(null, "C", null, null, INPUT), OUTPUT);
+        assertNull(newTransformer("b", null).transform(null, "C", null, null, INPUT));
+        assertEquals(transforms.get(), 2);
+    }
+
+    @Test
+    public void testClassName() throws Exception {
+        ClassFileTransformer transformer = newTransformer("a", OUTPUT);
+
+        transformer.transform(null, "C", null, null, INPUT);
+        transformer.transform(null, "D", null, null, INPUT);
+        assertEquals(transforms.get(), 2);
+    }
+
+    @Test
+    public void testInput() throws Exception {
+        ClassFileTransformer transformer = newTransformer("a", OUTPUT);
+
+        transformer.transform(null, "C", null, null, INPUT);
+        transformer.transform(null, "C", null, null, OUTPUT);
+        assertEquals(transforms.get(), 2);
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        ClassFileTransformer transformer = newTransformer("a", null);
+
+        assertNull(transformer.transform(null, "C", null, null, INPUT));
+        assertNull(transformer.transform(null, "C", null, null, INPUT));
+        assertEquals(transforms.get(), 1);
+    }
+
+    @Test
+    public void testRedefinition() throws Exception {
+        ClassFileTransformer transformer = newTransformer("a", OUTPUT);
+
+        transformer.transform(null, "C", null, null, INPUT);
+        transformer.transform(null, "C", Object.class, null, INPUT);
+        assertEquals(transforms.get(), 2);
+    }
+
+    private ClassFileTransformer newTransformer(String configuration, byte[] output) throws IOException {
+        return new CachingClassFileTransformer((loader, className, classBeingRedefined, protectionDomain,
+                classfileBuffer) -> {
+            transforms.incrementAndGet();
+            return output;
+        }, directory, configuration);
+    }
+}
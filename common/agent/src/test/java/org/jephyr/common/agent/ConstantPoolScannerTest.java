@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.common.agent;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.testng.annotations.Test;
+
+import static org.jephyr.common.agent.ConstantPoolScanner.hasMethodRefs;
+import static org.jephyr.common.agent.ConstantPoolScanner.hasUtf8;
+import static org.jephyr.common.agent.ConstantPoolScanner.hasUtf8Containing;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.H_GETFIELD;
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.V1_8;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class ConstantPoolScannerTest {
+
+    @Test
+    public void testNoMethodRefs() {
+        ClassWriter writer = newClassWriter();
+        writer.newConst(1);
+        writer.newConst(1.0f);
+        writer.newConst(1L);
+        writer.newConst(1.0);
+        writer.newConst("s");
+        writer.newClass("a/B");
+        writer.newField("a/B", "f", "I");
+        writer.newNameType("m", "()V");
+        writer.newHandle(H_GETFIELD, "a/B", "f", "I");
+        writer.newConst(Type.getMethodType("()V"));
+        assertFalse(hasMethodRefs(writer.toByteArray()));
+    }
+
+    @Test
+    public void testMethodRef() {
+        ClassWriter writer = newClassWriter();
+        writer.newConst(1L);
+        writer.newMethod("a/B", "m", "()V", false);
+        assertTrue(hasMethodRefs(writer.toByteArray()));
+    }
+
+    @Test
+    public void testInterfaceMethodRef() {
+        ClassWriter writer = newClassWriter();
+        writer.newConst(1.0);
+        writer.newMethod("a/B", "m", "()V", true);
+        assertTrue(hasMethodRefs(writer.toByteArray()));
+    }
+
+    @Test
+    public void testInvokeDynamic() {
+        ClassWriter writer = newClassWriter();
+        writer.newInvokeDynamic("m", "()V", new Handle(H_INVOKESTATIC, "a/B", "bsm", "()V"));
+        assertTrue(hasMethodRefs(writer.toByteArray()));
+    }
+
+    @Test
+    public void testUnknownTag() {
+        ClassWriter writer = newClassWriter();
+        writer.newUTF8("x");
+        byte[] b = writer.toByteArray();
+        b[10] = 99;
+        assertTrue(hasMethodRefs(b));
+        assertTrue(hasUtf8(b, "y"));
+        assertTrue(hasUtf8Containing(b, Collections.singleton("y")));
+    }
+
+    @Test
+    public void testUtf8() {
+        ClassWriter writer = newClassWriter();
+        writer.newConst(1L);
+        writer.newConst(1.0);
+        writer.newUTF8("La/Annotation;");
+        byte[] b = writer.toByteArray();
+        assertTrue(hasUtf8(b, "La/Annotation;"));
+        assertFalse(hasUtf8(b, "a/Annotation"));
+        assertFalse(hasUtf8(b, "La/Annotation;;"));
+    }
+
+    @Test
+    public void testUtf8Containing() {
+        ClassWriter writer = newClassWriter();
+        writer.newConst(1L);
+        writer.newUTF8("(La/B;)V");
+        byte[] b = writer.toByteArray();
+        assertTrue(hasUtf8Containing(b, Arrays.asList("c/D", "a/B")));
+        assertFalse(hasUtf8Containing(b, Collections.singleton("c/D")));
+        assertFalse(hasUtf8Containing(b, Collections.emptyList()));
+    }
+
+    private static ClassWriter newClassWriter() {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(V1_8, ACC_PUBLIC | ACC_SUPER, "a/C", null, "java/lang/Object", null);
+        return writer;
+    }
+}
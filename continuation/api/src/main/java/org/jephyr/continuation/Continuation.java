@@ -37,6 +37,10 @@ public abstract class Continuation implements Serializable {
         return ContinuationProvider.provider().createContinuation(target);
     }
 
+    public static Continuation reset(Continuation continuation, Runnable target) {
+        return ContinuationProvider.provider().resetContinuation(continuation, target);
+    }
+
     public static void suspend() {
         ContinuationProvider.provider().suspendContinuation();
     }
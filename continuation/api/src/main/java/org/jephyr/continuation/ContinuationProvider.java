@@ -40,6 +40,10 @@ public abstract class ContinuationProvider {
 
     public abstract Continuation createContinuation(Runnable target);
 
+    public Continuation resetContinuation(Continuation continuation, Runnable target) {
+        return createContinuation(target);
+    }
+
     public abstract void suspendContinuation();
 
     private static final class Holder {
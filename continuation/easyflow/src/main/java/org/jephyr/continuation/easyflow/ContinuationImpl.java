@@ -28,51 +28,86 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 
 import org.jephyr.continuation.UnsuspendableError;
 
 public final class ContinuationImpl implements Serializable {
 
-    private static final long serialVersionUID = -1464502970408391110L;
+    private static final long serialVersionUID = 2983412735520434652L;
 
     private static final int SUSPENDED = 1;
     private static final int RESUMED = 2;
     private static final int SUSPENDING = 3;
     private static final int DONE = 4;
-    private static final int[] EMPTY_INTS = {};
-    private static final float[] EMPTY_FLOATS = {};
+    private static final int MIN_TRIMMED_LENGTH = 256;
+    private static final int TRIM_THRESHOLD = 8;
+    private static final int HINT_DECAY_SHIFT = 3;
     private static final long[] EMPTY_LONGS = {};
-    private static final double[] EMPTY_DOUBLES = {};
     private static final Object[] EMPTY_OBJECTS = {};
+    private static final int RUN_ID = getMethodId("run", "()V");
+    private static final int SUSPEND_ID = getMethodId("suspend", "()V");
+    private static final ClassValue<int[]> stackSizeHints = new ClassValue<int[]>() {
 
-    private final Runnable target;
+        @Override
+        protected int[] computeValue(Class<?> type) {
+            return new int[2];
+        }
+    };
+
+    private Runnable target;
     private int state;
     private transient boolean unsuspendable;
     private transient int depth;
+    private transient boolean pending;
     private transient Object obj;
     private transient Class<?> cls;
-    private transient String name;
-    private transient String desc;
+    private transient int id;
     private transient Class<?> unsuspendableClass;
-    private transient String unsuspendableName;
-    private transient String unsuspendableDesc;
-    private transient int[] intStack = EMPTY_INTS;
-    private transient int intTop;
-    private transient float[] floatStack = EMPTY_FLOATS;
-    private transient int floatTop;
-    private transient long[] longStack = EMPTY_LONGS;
-    private transient int longTop;
-    private transient double[] doubleStack = EMPTY_DOUBLES;
-    private transient int doubleTop;
+    private transient int unsuspendableId;
+    private transient long[] primitiveStack = EMPTY_LONGS;
+    private transient int primitiveTop;
     private transient Object[] objectStack = EMPTY_OBJECTS;
     private transient int objectTop;
+    private transient int[] stackSizeHint;
+    private transient int primitivePeak;
+    private transient int objectPeak;
+    private transient int shallowSuspends;
     private static volatile UnsuspendableErrorListener unsuspendableErrorListener;
 
     ContinuationImpl(Runnable target) {
+        init(target);
+    }
+
+    void reset(Runnable target) {
+        if (state != DONE) {
+            throw new IllegalStateException();
+        }
+        state = 0;
+        unsuspendable = false;
+        depth = 0;
+        pending = false;
+        unsuspendableClass = null;
+        unsuspendableId = 0;
+        init(target);
+    }
+
+    private void init(Runnable target) {
         this.target = target;
-        invocationStarting(target, "run", "()V");
+        stackSizeHint = stackSizeHints.get(target.getClass());
+        primitivePeak = stackSizeHint[0];
+        objectPeak = stackSizeHint[1];
+        shallowSuspends = 0;
+        StackPool pool = StackPool.get();
+        primitiveStack = pool.takePrimitiveStack(stackSizeHint[0]);
+        objectStack = pool.takeObjectStack(stackSizeHint[1]);
+        invocationStarting(target, RUN_ID);
     }
 
     public static ContinuationImpl currentImpl() {
@@ -80,10 +115,12 @@ public final class ContinuationImpl implements Serializable {
     }
 
     void suspend() {
-        if (unsuspendable || !isStaticInvocationExpected(EasyFlowContinuation.class, "suspend", "()V")) {
+        boolean expected = state == SUSPENDED || isStaticInvocationExpected(EasyFlowContinuation.class, SUSPEND_ID);
+        pending = false;
+        if (unsuspendable || !expected) {
             UnsuspendableError unsuspendableError = new UnsuspendableError(unsuspendableClass == null ? null :
-                    "Unsuspendable method " + unsuspendableClass.getName() + '.' + unsuspendableName +
-                            unsuspendableDesc);
+                    "Unsuspendable method " + unsuspendableClass.getName() + '.' +
+                            MethodIdRegistry.getMethod(unsuspendableId));
             UnsuspendableErrorListener unsuspendableErrorListener = ContinuationImpl.unsuspendableErrorListener;
             if (unsuspendableErrorListener != null) {
                 unsuspendableErrorListener.onUnsuspendableError(unsuspendableError);
@@ -101,17 +138,76 @@ public final class ContinuationImpl implements Serializable {
             target.run();
         } catch (Throwable e) {
             state = DONE;
+            releaseStacks();
             throw e;
         }
         if (state == SUSPENDING) {
             state = SUSPENDED;
+            updateStackSizeHint();
+            trimStacks();
             return true;
         } else {
             state = DONE;
+            releaseStacks();
             return false;
         }
     }
 
+    private void trimStacks() {
+        primitivePeak = decayPeak(primitivePeak, primitiveTop);
+        objectPeak = decayPeak(objectPeak, objectTop);
+        int primitiveLength = Math.max(primitivePeak << 1, MIN_TRIMMED_LENGTH);
+        int objectLength = Math.max(objectPeak << 1, MIN_TRIMMED_LENGTH);
+        if (primitiveStack.length <= primitiveLength << 1 && objectStack.length <= objectLength << 1) {
+            shallowSuspends = 0;
+            return;
+        }
+        if (++shallowSuspends < TRIM_THRESHOLD) {
+            return;
+        }
+        shallowSuspends = 0;
+        if (primitiveStack.length > primitiveLength << 1) {
+            long[] stack = new long[primitiveLength];
+            System.arraycopy(primitiveStack, 0, stack, 0, primitiveTop);
+            StackPool.get().releasePrimitiveStack(primitiveStack);
+            primitiveStack = stack;
+        }
+        if (objectStack.length > objectLength << 1) {
+            Object[] stack = new Object[objectLength];
+            System.arraycopy(objectStack, 0, stack, 0, objectTop);
+            StackPool.get().releaseObjectStack(objectStack, objectTop);
+            objectStack = stack;
+        }
+    }
+
+    private static int decayPeak(int peak, int top) {
+        return top >= peak ? top : peak - (peak - top + (1 << HINT_DECAY_SHIFT) - 1 >> HINT_DECAY_SHIFT);
+    }
+
+    private void releaseStacks() {
+        StackPool pool = StackPool.get();
+        pool.releasePrimitiveStack(primitiveStack);
+        primitiveStack = EMPTY_LONGS;
+        primitiveTop = 0;
+        pool.releaseObjectStack(objectStack, objectTop);
+        objectStack = EMPTY_OBJECTS;
+        objectTop = 0;
+    }
+
+    // The hint is shared by every carrier running the same target class and is written without synchronization.
+    // A lost update only costs a less accurate presize, so whole values are written instead of read-modify-write
+    // increments to keep each slot a value some suspend actually computed.
+    private void updateStackSizeHint() {
+        int[] hint = stackSizeHint;
+        hint[0] = adjustStackSizeHint(hint[0], primitiveTop);
+        hint[1] = adjustStackSizeHint(hint[1], objectTop);
+    }
+
+    private static int adjustStackSizeHint(int hint, int top) {
+        int delta = top - hint;
+        return hint + (delta > 0 ? delta + (1 << HINT_DECAY_SHIFT) - 1 >> HINT_DECAY_SHIFT : delta >> HINT_DECAY_SHIFT);
+    }
+
     public boolean isSuspending() {
         return state == SUSPENDING;
     }
@@ -120,111 +216,77 @@ public final class ContinuationImpl implements Serializable {
         return state == SUSPENDED;
     }
 
-    public void invocationStarting(Object obj, String name, String desc) {
+    public static int getMethodId(String name, String desc) {
+        return MethodIdRegistry.getId(name, desc);
+    }
+
+    public static CallSite bootstrapMethodId(Lookup lookup, String name, MethodType type, String methodName,
+            String methodDesc) {
+        return new ConstantCallSite(MethodHandles.constant(int.class, getMethodId(methodName, methodDesc)));
+    }
+
+    public void invocationStarting(Object obj, int id) {
+        pending = true;
         this.obj = obj;
         cls = null;
-        this.name = name;
-        this.desc = desc;
+        this.id = id;
     }
 
-    public void staticInvocationStarting(Class<?> cls, String name, String desc) {
+    public void staticInvocationStarting(Class<?> cls, int id) {
+        pending = true;
         obj = null;
         this.cls = cls;
-        this.name = name;
-        this.desc = desc;
+        this.id = id;
     }
 
     public void reflectiveInvocationStarting(Method method, Object obj) {
-        if ((method.getModifiers() & Modifier.STATIC) == 0) {
-            this.obj = obj;
-            cls = null;
-        } else {
-            this.obj = null;
-            cls = method.getDeclaringClass();
-        }
-        name = method.getName();
-        desc = getDescriptor(method);
+        targetInvocationStarting(ReflectiveTarget.get(method), obj);
     }
 
-    private static String getDescriptor(Method method) {
-        StringBuffer sb = new StringBuffer().append('(');
-        for (Class<?> parameter : method.getParameterTypes()) {
-            appendDescriptor(sb, parameter);
-        }
-        sb.append(')');
-        appendDescriptor(sb, method.getReturnType());
-        return sb.toString();
+    public void methodHandleInvocationStarting(MethodHandle handle, Object obj) {
+        targetInvocationStarting(ReflectiveTarget.get(handle), obj);
     }
 
-    private static void appendDescriptor(StringBuffer sb, Class<?> type) {
-        while (true) {
-            if (type.isPrimitive()) {
-                char c;
-                if (type == Void.TYPE) {
-                    c = 'V';
-                } else if (type == Boolean.TYPE) {
-                    c = 'Z';
-                } else if (type == Character.TYPE) {
-                    c = 'C';
-                } else if (type == Byte.TYPE) {
-                    c = 'B';
-                } else if (type == Short.TYPE) {
-                    c = 'S';
-                } else if (type == Integer.TYPE) {
-                    c = 'I';
-                } else if (type == Float.TYPE) {
-                    c = 'F';
-                } else if (type == Long.TYPE) {
-                    c = 'J';
-                } else {
-                    c = 'D';
-                }
-                sb.append(c);
-                return;
-            } else if (type.isArray()) {
-                sb.append('[');
-                type = type.getComponentType();
-            } else {
-                sb.append('L');
-                String name = type.getName();
-                for (int i = 0, n = name.length(); i < n; i++) {
-                    char c = name.charAt(i);
-                    sb.append(c == '.' ? '/' : c);
-                }
-                sb.append(';');
-                return;
-            }
+    private void targetInvocationStarting(ReflectiveTarget target, Object obj) {
+        pending = true;
+        if (target.isStatic()) {
+            this.obj = null;
+            cls = target.cls;
+        } else {
+            this.obj = obj;
+            cls = null;
         }
+        id = target.id;
     }
 
-    public void invocationStarted(Object obj, String name, String desc) {
+    public void invocationStarted(Object obj, int id) {
         if (unsuspendable) {
             depth++;
-        } else if (!isInvocationExpected(obj, name, desc)) {
+        } else if (!isInvocationExpected(obj, id)) {
             unsuspendable = true;
             unsuspendableClass = obj.getClass();
-            unsuspendableName = name;
-            unsuspendableDesc = desc;
+            unsuspendableId = id;
         }
+        pending = false;
     }
 
-    private boolean isInvocationExpected(Object obj, String name, String desc) {
-        return this.obj == obj && cls == null && name.equals(this.name) && desc.equals(this.desc);
+    private boolean isInvocationExpected(Object obj, int id) {
+        return pending && this.id == id && this.obj == obj && cls == null;
     }
 
-    public void staticInvocationStarted(Class<?> cls, String name, String desc) {
+    public void staticInvocationStarted(Class<?> cls, int id) {
         if (unsuspendable) {
             depth++;
-        } else if (!isStaticInvocationExpected(cls, name, desc)) {
+        } else if (!isStaticInvocationExpected(cls, id)) {
             unsuspendable = true;
             unsuspendableClass = cls;
-            unsuspendableName = name;
-            unsuspendableDesc = desc;
+            unsuspendableId = id;
         }
+        pending = false;
     }
 
-    private boolean isStaticInvocationExpected(Class<?> cls, String name, String desc) {
-        return obj == null && cls.equals(this.cls) && name.equals(this.name) && desc.equals(this.desc);
+    private boolean isStaticInvocationExpected(Class<?> cls, int id) {
+        return pending && this.id == id && this.cls == cls && obj == null;
     }
 
     public void invocationEnded() {
@@ -233,8 +295,7 @@ public final class ContinuationImpl implements Serializable {
         } else {
             unsuspendable = false;
             unsuspendableClass = null;
-            unsuspendableName = null;
-            unsuspendableDesc = null;
+            unsuspendableId = 0;
         }
     }
 
@@ -244,8 +305,7 @@ public final class ContinuationImpl implements Serializable {
         } else {
             unsuspendable = true;
             unsuspendableClass = obj == null ? cls : obj.getClass();
-            unsuspendableName = name;
-            unsuspendableDesc = desc;
+            unsuspendableId = id;
         }
     }
 
@@ -255,48 +315,17 @@ public final class ContinuationImpl implements Serializable {
         } else {
             unsuspendable = false;
             unsuspendableClass = null;
-            unsuspendableName = null;
-            unsuspendableDesc = null;
-        }
-    }
-
-    public void ensureIntStackSize(int size) {
-        int n = intStack.length;
-        int n1 = intTop + size;
-        if (n < n1) {
-            int[] stack = new int[n1];
-            System.arraycopy(intStack, 0, stack, 0, n);
-            intStack = stack;
-        }
-    }
-
-    public void ensureFloatStackSize(int size) {
-        int n = floatStack.length;
-        int n1 = floatTop + size;
-        if (n < n1) {
-            float[] stack = new float[n1];
-            System.arraycopy(floatStack, 0, stack, 0, n);
-            floatStack = stack;
-        }
-    }
-
-    public void ensureLongStackSize(int size) {
-        int n = longStack.length;
-        int n1 = longTop + size;
-        if (n < n1) {
-            long[] stack = new long[n1];
-            System.arraycopy(longStack, 0, stack, 0, n);
-            longStack = stack;
+            unsuspendableId = 0;
         }
     }
 
-    public void ensureDoubleStackSize(int size) {
-        int n = doubleStack.length;
-        int n1 = doubleTop + size;
+    public void ensurePrimitiveStackSize(int size) {
+        int n = primitiveStack.length;
+        int n1 = primitiveTop + size;
         if (n < n1) {
-            double[] stack = new double[n1];
-            System.arraycopy(doubleStack, 0, stack, 0, n);
-            doubleStack = stack;
+            long[] stack = new long[Math.max(n1, n << 1)];
+            System.arraycopy(primitiveStack, 0, stack, 0, n);
+            primitiveStack = stack;
         }
     }
 
@@ -304,42 +333,42 @@ public final class ContinuationImpl implements Serializable {
         int n = objectStack.length;
         int n1 = objectTop + size;
         if (n < n1) {
-            Object[] stack = new Object[n1];
+            Object[] stack = new Object[Math.max(n1, n << 1)];
             System.arraycopy(objectStack, 0, stack, 0, n);
             objectStack = stack;
         }
     }
 
     public void pushInt(int value) {
-        intStack[intTop++] = value;
+        primitiveStack[primitiveTop++] = value;
     }
 
     public int popInt() {
-        return intStack[--intTop];
+        return (int) primitiveStack[--primitiveTop];
     }
 
     public void pushFloat(float value) {
-        floatStack[floatTop++] = value;
+        primitiveStack[primitiveTop++] = Float.floatToRawIntBits(value);
     }
 
     public float popFloat() {
-        return floatStack[--floatTop];
+        return Float.intBitsToFloat((int) primitiveStack[--primitiveTop]);
     }
 
     public void pushLong(long value) {
-        longStack[longTop++] = value;
+        primitiveStack[primitiveTop++] = value;
     }
 
     public long popLong() {
-        return longStack[--longTop];
+        return primitiveStack[--primitiveTop];
     }
 
     public void pushDouble(double value) {
-        doubleStack[doubleTop++] = value;
+        primitiveStack[primitiveTop++] = Double.doubleToRawLongBits(value);
     }
 
     public double popDouble() {
-        return doubleStack[--doubleTop];
+        return Double.longBitsToDouble(primitiveStack[--primitiveTop]);
     }
 
     public void pushObject(Object value) {
@@ -353,6 +382,10 @@ public final class ContinuationImpl implements Serializable {
         return value;
     }
 
+    public static Object[] getDefaultArguments(Method method) {
+        return ReflectiveTarget.get(method).defaultArguments;
+    }
+
     public static Object[] getDefaultArguments(Class<?>[] types) {
         int n = types.length;
         Object[] args = new Object[n];
@@ -398,24 +431,9 @@ public final class ContinuationImpl implements Serializable {
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
 
-        out.writeInt(intTop);
-        for (int i = 0; i < intTop; i++) {
-            out.writeInt(intStack[i]);
-        }
-
-        out.writeInt(longTop);
-        for (int i = 0; i < longTop; i++) {
-            out.writeLong(longStack[i]);
-        }
-
-        out.writeInt(doubleTop);
-        for (int i = 0; i < doubleTop; i++) {
-            out.writeDouble(doubleStack[i]);
-        }
-
-        out.writeInt(floatTop);
-        for (int i = 0; i < floatTop; i++) {
-            out.writeDouble(floatStack[i]);
+        out.writeInt(primitiveTop);
+        for (int i = 0; i < primitiveTop; i++) {
+            out.writeLong(primitiveStack[i]);
         }
 
         out.writeInt(objectTop);
@@ -427,31 +445,17 @@ public final class ContinuationImpl implements Serializable {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
 
-        intTop = in.readInt();
-        intStack = new int[intTop];
-        for (int i = 0; i < intTop; i++) {
-            intStack[i] = in.readInt();
-        }
-
-        longTop = in.readInt();
-        longStack = new long[longTop];
-        for (int i = 0; i < longTop; i++) {
-            longStack[i] = in.readLong();
-        }
-
-        doubleTop = in.readInt();
-        doubleStack = new double[doubleTop];
-        for (int i = 0; i < doubleTop; i++) {
-            doubleStack[i] = in.readDouble();
-        }
+        stackSizeHint = stackSizeHints.get(target.getClass());
 
-        floatTop = in.readInt();
-        floatStack = new float[floatTop];
-        for (int i = 0; i < floatTop; i++) {
-            floatStack[i] = in.readFloat();
+        primitiveTop = in.readInt();
+        primitivePeak = primitiveTop;
+        primitiveStack = new long[primitiveTop];
+        for (int i = 0; i < primitiveTop; i++) {
+            primitiveStack[i] = in.readLong();
         }
 
         objectTop = in.readInt();
+        objectPeak = objectTop;
         objectStack = new Object[objectTop];
         for (int i = 0; i < objectTop; i++) {
             objectStack[i] = in.readObject();
@@ -43,6 +43,10 @@ public final class EasyFlowContinuation extends Continuation {
         return new EasyFlowContinuation(target);
     }
 
+    public void reset(Runnable target) {
+        impl.reset(target);
+    }
+
     public static void suspend() {
         EasyFlowContinuation continuation = currentContinuation.get();
         if (continuation == null) {
@@ -34,6 +34,15 @@ public final class EasyFlowContinuationProvider extends ContinuationProvider {
         return EasyFlowContinuation.create(target);
     }
 
+    @Override
+    public Continuation resetContinuation(Continuation continuation, Runnable target) {
+        if (continuation instanceof EasyFlowContinuation) {
+            ((EasyFlowContinuation) continuation).reset(target);
+            return continuation;
+        }
+        return EasyFlowContinuation.create(target);
+    }
+
     @Override
     public void suspendContinuation() {
         EasyFlowContinuation.suspend();
@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.continuation.easyflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+final class MethodIdRegistry {
+
+    private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static final List<String> methods = new ArrayList<>();
+
+    private MethodIdRegistry() {
+    }
+
+    static int getId(String name, String desc) {
+        String method = name + desc;
+        Integer id = ids.get(method);
+        if (id != null) {
+            return id;
+        }
+        synchronized (methods) {
+            id = ids.get(method);
+            if (id == null) {
+                methods.add(method);
+                id = methods.size();
+                ids.put(method, id);
+            }
+            return id;
+        }
+    }
+
+    static String getMethod(int id) {
+        synchronized (methods) {
+            return methods.get(id - 1);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.continuation.easyflow;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+final class ReflectiveTarget {
+
+    private static final ClassValue<ConcurrentMap<Method, ReflectiveTarget>> methodTargets =
+            new ClassValue<ConcurrentMap<Method, ReflectiveTarget>>() {
+
+                @Override
+                protected ConcurrentMap<Method, ReflectiveTarget> computeValue(Class<?> type) {
+                    return new ConcurrentHashMap<>();
+                }
+            };
+    private static final ReferenceQueue<MethodHandle> queue = new ReferenceQueue<>();
+    private static final Object lock = new Object();
+    private static final ReflectiveTarget UNKNOWN = new ReflectiveTarget(null, 0, null);
+    private static volatile HandleKey[] handleKeys = new HandleKey[16];
+    private static int handleCount;
+
+    final Class<?> cls;
+    final int id;
+    final Object[] defaultArguments;
+
+    private ReflectiveTarget(Class<?> cls, int id, Object[] defaultArguments) {
+        this.cls = cls;
+        this.id = id;
+        this.defaultArguments = defaultArguments;
+    }
+
+    static ReflectiveTarget get(Method method) {
+        ConcurrentMap<Method, ReflectiveTarget> targets = methodTargets.get(method.getDeclaringClass());
+        ReflectiveTarget target = targets.get(method);
+        if (target != null) {
+            return target;
+        }
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        ReflectiveTarget target1 = new ReflectiveTarget(
+                (method.getModifiers() & Modifier.STATIC) == 0 ? null : method.getDeclaringClass(),
+                MethodIdRegistry.getId(method.getName(), getDescriptor(parameterTypes, method.getReturnType())),
+                ContinuationImpl.getDefaultArguments(parameterTypes));
+        target = targets.putIfAbsent(method, target1);
+        return target == null ? target1 : target;
+    }
+
+    static ReflectiveTarget get(MethodHandle handle) {
+        HandleKey key = find(handleKeys, handle);
+        if (key != null) {
+            return key.target;
+        }
+        ReflectiveTarget target;
+        try {
+            target = get(MethodHandles.reflectAs(Method.class, handle));
+        } catch (IllegalArgumentException | ClassCastException | SecurityException ignored) {
+            // cache handles that cannot be cracked too, so later invocations do not throw again
+            target = UNKNOWN;
+        }
+        synchronized (lock) {
+            HandleKey[] keys = handleKeys;
+            key = find(keys, handle);
+            if (key != null) {
+                return key.target;
+            }
+            boolean stale = false;
+            while (queue.poll() != null) {
+                stale = true;
+            }
+            if (stale || (handleCount + 1) * 2 > keys.length) {
+                keys = rehash(keys);
+            }
+            insert(keys, new HandleKey(handle, target, queue));
+            handleCount++;
+            handleKeys = keys;
+        }
+        return target;
+    }
+
+    boolean isStatic() {
+        return cls != null;
+    }
+
+    private static HandleKey find(HandleKey[] keys, MethodHandle handle) {
+        int mask = keys.length - 1;
+        for (int i = System.identityHashCode(handle) & mask; ; i = (i + 1) & mask) {
+            HandleKey key = keys[i];
+            if (key == null || key.get() == handle) {
+                return key;
+            }
+        }
+    }
+
+    private static HandleKey[] rehash(HandleKey[] keys) {
+        int count = 0;
+        for (HandleKey key : keys) {
+            if (key != null && key.get() != null) {
+                count++;
+            }
+        }
+        int length = 16;
+        while ((count + 1) * 4 > length) {
+            length <<= 1;
+        }
+        HandleKey[] newKeys = new HandleKey[length];
+        for (HandleKey key : keys) {
+            if (key != null && key.get() != null) {
+                insert(newKeys, key);
+            }
+        }
+        handleCount = count;
+        return newKeys;
+    }
+
+    private static void insert(HandleKey[] keys, HandleKey key) {
+        int mask = keys.length - 1;
+        int i = key.hash & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+    }
+
+    private static String getDescriptor(Class<?>[] parameterTypes, Class<?> returnType) {
+        StringBuilder sb = new StringBuilder().append('(');
+        for (Class<?> parameterType : parameterTypes) {
+            appendDescriptor(sb, parameterType);
+        }
+        sb.append(')');
+        appendDescriptor(sb, returnType);
+        return sb.toString();
+    }
+
+    private static void appendDescriptor(StringBuilder sb, Class<?> type) {
+        while (true) {
+            if (type.isPrimitive()) {
+                char c;
+                if (type == Void.TYPE) {
+                    c = 'V';
+                } else if (type == Boolean.TYPE) {
+                    c = 'Z';
+                } else if (type == Character.TYPE) {
+                    c = 'C';
+                } else if (type == Byte.TYPE) {
+                    c = 'B';
+                } else if (type == Short.TYPE) {
+                    c = 'S';
+                } else if (type == Integer.TYPE) {
+                    c = 'I';
+                } else if (type == Float.TYPE) {
+                    c = 'F';
+                } else if (type == Long.TYPE) {
+                    c = 'J';
+                } else {
+                    c = 'D';
+                }
+                sb.append(c);
+                return;
+            } else if (type.isArray()) {
+                sb.append('[');
+                type = type.getComponentType();
+            } else {
+                sb.append('L');
+                String name = type.getName();
+                for (int i = 0, n = name.length(); i < n; i++) {
+                    char c = name.charAt(i);
+                    sb.append(c == '.' ? '/' : c);
+                }
+                sb.append(';');
+                return;
+            }
+        }
+    }
+
+    private static final class HandleKey extends WeakReference<MethodHandle> {
+
+        final int hash;
+        final ReflectiveTarget target;
+
+        HandleKey(MethodHandle referent, ReflectiveTarget target, ReferenceQueue<MethodHandle> queue) {
+            super(referent, queue);
+            hash = System.identityHashCode(referent);
+            this.target = target;
+        }
+    }
+}
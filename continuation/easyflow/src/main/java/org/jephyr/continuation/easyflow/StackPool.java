@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.continuation.easyflow;
+
+import java.util.Arrays;
+
+final class StackPool {
+
+    private static final int CAPACITY = 16;
+    private static final int MAX_STACK_LENGTH = 4096;
+    private static final long[] EMPTY_LONGS = {};
+    private static final Object[] EMPTY_OBJECTS = {};
+    private static final ThreadLocal<StackPool> pools = new ThreadLocal<StackPool>() {
+
+        @Override
+        protected StackPool initialValue() {
+            return new StackPool();
+        }
+    };
+
+    private final long[][] primitiveStacks = new long[CAPACITY][];
+    private int primitiveCount;
+    private final Object[][] objectStacks = new Object[CAPACITY][];
+    private int objectCount;
+
+    private StackPool() {
+    }
+
+    static StackPool get() {
+        return pools.get();
+    }
+
+    long[] takePrimitiveStack(int size) {
+        for (int i = primitiveCount - 1; i >= 0; i--) {
+            long[] stack = primitiveStacks[i];
+            if (stack.length >= size) {
+                int last = --primitiveCount;
+                primitiveStacks[i] = primitiveStacks[last];
+                primitiveStacks[last] = null;
+                return stack;
+            }
+        }
+        return size == 0 ? EMPTY_LONGS : new long[size];
+    }
+
+    Object[] takeObjectStack(int size) {
+        for (int i = objectCount - 1; i >= 0; i--) {
+            Object[] stack = objectStacks[i];
+            if (stack.length >= size) {
+                int last = --objectCount;
+                objectStacks[i] = objectStacks[last];
+                objectStacks[last] = null;
+                return stack;
+            }
+        }
+        return size == 0 ? EMPTY_OBJECTS : new Object[size];
+    }
+
+    void releasePrimitiveStack(long[] stack) {
+        int length = stack.length;
+        if (length == 0 || length > MAX_STACK_LENGTH) {
+            return;
+        }
+        int index;
+        if (primitiveCount < CAPACITY) {
+            index = primitiveCount++;
+        } else {
+            index = 0;
+            for (int i = 1; i < CAPACITY; i++) {
+                if (primitiveStacks[i].length < primitiveStacks[index].length) {
+                    index = i;
+                }
+            }
+            if (primitiveStacks[index].length >= length) {
+                return;
+            }
+        }
+        primitiveStacks[index] = stack;
+    }
+
+    void releaseObjectStack(Object[] stack, int top) {
+        int length = stack.length;
+        if (length == 0 || length > MAX_STACK_LENGTH) {
+            return;
+        }
+        int index;
+        if (objectCount < CAPACITY) {
+            index = objectCount++;
+        } else {
+            index = 0;
+            for (int i = 1; i < CAPACITY; i++) {
+                if (objectStacks[i].length < objectStacks[index].length) {
+                    index = i;
+                }
+            }
+            if (objectStacks[index].length >= length) {
+                return;
+            }
+        }
+        Arrays.fill(stack, 0, top, null);
+        objectStacks[index] = stack;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.continuation.easyflow;
+
+import java.util.Arrays;
+
+import org.jephyr.continuation.Continuation;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class EasyFlowContinuationTest {
+
+    private static final int SUSPEND_ID = ContinuationImpl.getMethodId("suspend", "()V");
+
+    private StackPool pool;
+
+    static class FrameTarget implements Runnable {
+
+        private final int[] depths;
+        private int step;
+
+        FrameTarget(int... depths) {
+            this.depths = depths;
+        }
+
+        @Override
+        public void run() {
+            ContinuationImpl impl = ContinuationImpl.currentImpl();
+            if (impl.isSuspended()) {
+                for (int i = impl.popInt(); i > 0; i--) {
+                    impl.popInt();
+                    impl.popObject();
+                }
+                suspend(impl);
+            }
+            while (step < depths.length) {
+                int depth = depths[step++];
+                suspend(impl);
+                if (impl.isSuspending()) {
+                    impl.ensurePrimitiveStackSize(depth + 1);
+                    impl.ensureObjectStackSize(depth);
+                    for (int i = 0; i < depth; i++) {
+                        impl.pushInt(i);
+                        impl.pushObject(this);
+                    }
+                    impl.pushInt(depth);
+                    return;
+                }
+            }
+        }
+
+        private static void suspend(ContinuationImpl impl) {
+            impl.staticInvocationStarting(EasyFlowContinuation.class, SUSPEND_ID);
+            EasyFlowContinuation.suspend();
+        }
+    }
+
+    static final class OutlierTarget extends FrameTarget {
+
+        OutlierTarget(int... depths) {
+            super(depths);
+        }
+    }
+
+    static final class SmallTarget extends FrameTarget {
+
+        SmallTarget(int... depths) {
+            super(depths);
+        }
+    }
+
+    static final class TrimTarget extends FrameTarget {
+
+        TrimTarget(int... depths) {
+            super(depths);
+        }
+    }
+
+    static final class AlternatingTarget extends FrameTarget {
+
+        AlternatingTarget(int... depths) {
+            super(depths);
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        pool = StackPool.get();
+        drainPool();
+    }
+
+    private void drainPool() {
+        while (pool.takePrimitiveStack(0).length > 0) {
+        }
+        while (pool.takeObjectStack(0).length > 0) {
+        }
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        int[] runs = new int[2];
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(() -> runs[0]++);
+        assertFalse(continuation.resume());
+
+        continuation.reset(() -> runs[1]++);
+        assertFalse(continuation.resume());
+
+        assertEquals(runs[0], 1);
+        assertEquals(runs[1], 1);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testResetNotDone() throws Exception {
+        EasyFlowContinuation.create(() -> {}).reset(() -> {});
+    }
+
+    @Test
+    public void testResetContinuation() throws Exception {
+        EasyFlowContinuationProvider provider = new EasyFlowContinuationProvider();
+        Continuation continuation = provider.createContinuation(() -> {});
+        assertFalse(continuation.resume());
+
+        int[] runs = new int[1];
+        Continuation continuation1 = provider.resetContinuation(continuation, () -> runs[0]++);
+
+        assertSame(continuation1, continuation);
+        assertFalse(continuation1.resume());
+        assertEquals(runs[0], 1);
+    }
+
+    @Test
+    public void testResetReusesStacks() throws Exception {
+        long[] primitiveStack = new long[8];
+        Object[] objectStack = new Object[8];
+        pool.releasePrimitiveStack(primitiveStack);
+        pool.releaseObjectStack(objectStack, 0);
+
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(() -> {});
+        assertEquals(pool.takePrimitiveStack(0).length, 0);
+        assertEquals(pool.takeObjectStack(0).length, 0);
+        assertFalse(continuation.resume());
+
+        continuation.reset(() -> {});
+        assertEquals(pool.takePrimitiveStack(0).length, 0);
+        assertEquals(pool.takeObjectStack(0).length, 0);
+        assertFalse(continuation.resume());
+
+        assertSame(pool.takePrimitiveStack(0), primitiveStack);
+        assertSame(pool.takeObjectStack(0), objectStack);
+    }
+
+    @Test
+    public void testStackSizeHintDecays() throws Exception {
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(new OutlierTarget(1000));
+        assertTrue(continuation.resume());
+        assertFalse(continuation.resume());
+
+        drainPool();
+        pool.releasePrimitiveStack(new long[64]);
+        pool.releaseObjectStack(new Object[64], 0);
+        EasyFlowContinuation.create(new OutlierTarget(1));
+        assertEquals(pool.takePrimitiveStack(0).length, 64);
+        assertEquals(pool.takeObjectStack(0).length, 64);
+
+        for (int i = 0; i < 32; i++) {
+            continuation = EasyFlowContinuation.create(new OutlierTarget(1));
+            assertTrue(continuation.resume());
+            assertFalse(continuation.resume());
+        }
+
+        drainPool();
+        pool.releasePrimitiveStack(new long[64]);
+        pool.releaseObjectStack(new Object[64], 0);
+        EasyFlowContinuation.create(new OutlierTarget(1));
+        assertEquals(pool.takePrimitiveStack(0).length, 0);
+        assertEquals(pool.takeObjectStack(0).length, 0);
+    }
+
+    @Test
+    public void testStackSizeHintReachesSmallDepth() throws Exception {
+        for (int i = 0; i < 32; i++) {
+            EasyFlowContinuation continuation = EasyFlowContinuation.create(new SmallTarget(5));
+            assertTrue(continuation.resume());
+            assertFalse(continuation.resume());
+        }
+
+        drainPool();
+        pool.releasePrimitiveStack(new long[5]);
+        pool.releaseObjectStack(new Object[4], 0);
+        EasyFlowContinuation.create(new SmallTarget(5));
+        assertEquals(pool.takePrimitiveStack(0).length, 5);
+        assertEquals(pool.takeObjectStack(0).length, 4);
+    }
+
+    @Test
+    public void testTrimAfterShallowSuspends() throws Exception {
+        int[] depths = new int[25];
+        Arrays.fill(depths, 1);
+        depths[0] = 1000;
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(new TrimTarget(depths));
+        assertTrue(continuation.resume());
+
+        int trimmed = 0;
+        for (int i = 1; i < depths.length; i++) {
+            assertTrue(continuation.resume());
+            long[] primitiveStack = pool.takePrimitiveStack(0);
+            Object[] objectStack = pool.takeObjectStack(0);
+            if (primitiveStack.length > 0) {
+                assertEquals(trimmed, 0);
+                assertEquals(primitiveStack.length, 1001);
+                assertEquals(objectStack.length, 1000);
+                trimmed = i;
+            } else {
+                assertEquals(objectStack.length, 0);
+            }
+        }
+        assertTrue(trimmed > 8);
+
+        assertFalse(continuation.resume());
+        assertEquals(pool.takePrimitiveStack(0).length, 256);
+        assertEquals(pool.takeObjectStack(0).length, 256);
+    }
+
+    @Test
+    public void testNoTrimWhenDepthAlternates() throws Exception {
+        int[] depths = new int[40];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = (i & 1) == 0 ? 1000 : 1;
+        }
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(new AlternatingTarget(depths));
+        for (int i = 0; i < depths.length; i++) {
+            assertTrue(continuation.resume());
+            assertEquals(pool.takePrimitiveStack(0).length, 0);
+            assertEquals(pool.takeObjectStack(0).length, 0);
+        }
+
+        assertFalse(continuation.resume());
+        assertTrue(pool.takePrimitiveStack(0).length >= 1001);
+        assertTrue(pool.takeObjectStack(0).length >= 1000);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.continuation.easyflow;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+import com.sun.management.ThreadMXBean;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ReflectiveTargetTest {
+
+    static class Sample {
+
+        static int add(int a, long b, String c) {
+            return 0;
+        }
+
+        void run(Object[] values) {
+        }
+    }
+
+    @Test
+    public void testMethod() throws Exception {
+        Method add = Sample.class.getDeclaredMethod("add", int.class, long.class, String.class);
+        ReflectiveTarget target = ReflectiveTarget.get(add);
+
+        assertSame(ReflectiveTarget.get(add), target);
+        assertTrue(target.isStatic());
+        assertSame(target.cls, Sample.class);
+        assertEquals(target.id, MethodIdRegistry.getId("add", "(IJLjava/lang/String;)I"));
+        assertEquals(target.defaultArguments, new Object[] { 0, 0L, null });
+
+        ReflectiveTarget target1 = ReflectiveTarget.get(Sample.class.getDeclaredMethod("run", Object[].class));
+        assertFalse(target1.isStatic());
+        assertEquals(target1.id, MethodIdRegistry.getId("run", "([Ljava/lang/Object;)V"));
+    }
+
+    @Test
+    public void testMethodHandle() throws Exception {
+        Method add = Sample.class.getDeclaredMethod("add", int.class, long.class, String.class);
+        MethodHandle handle = MethodHandles.lookup().unreflect(add);
+
+        assertSame(ReflectiveTarget.get(handle), ReflectiveTarget.get(add));
+        assertSame(ReflectiveTarget.get(handle), ReflectiveTarget.get(add));
+    }
+
+    @Test
+    public void testManyMethodHandles() throws Exception {
+        Method run = Sample.class.getDeclaredMethod("run", Object[].class);
+        ReflectiveTarget target = ReflectiveTarget.get(run);
+        MethodHandle[] handles = new MethodHandle[100];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = MethodHandles.lookup().unreflect(run);
+            assertSame(ReflectiveTarget.get(handles[i]), target);
+        }
+        for (MethodHandle handle : handles) {
+            assertSame(ReflectiveTarget.get(handle), target);
+        }
+    }
+
+    @Test
+    public void testUnknownMethodHandle() throws Exception {
+        Method add = Sample.class.getDeclaredMethod("add", int.class, long.class, String.class);
+        MethodHandle handle = MethodHandles.insertArguments(MethodHandles.lookup().unreflect(add), 0, 1);
+        ReflectiveTarget target = ReflectiveTarget.get(handle);
+
+        assertNotSame(target, ReflectiveTarget.get(add));
+        assertFalse(target.isStatic());
+        assertNull(target.defaultArguments);
+        assertSame(ReflectiveTarget.get(handle), target);
+    }
+
+    @Test
+    public void testUnknownMethodHandleLookupDoesNotAllocate() throws Exception {
+        MethodHandle handle = MethodHandles.constant(String.class, "value");
+        ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 10000; i++) {
+            ReflectiveTarget.get(handle);
+        }
+
+        long allocated = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            ReflectiveTarget.get(handle);
+        }
+        allocated = bean.getThreadAllocatedBytes(threadId) - allocated;
+
+        assertTrue(allocated < 1024, allocated + " bytes allocated");
+    }
+
+    @Test
+    public void testMethodHandleLookupDoesNotAllocate() throws Exception {
+        MethodHandle handle = MethodHandles.lookup().unreflect(
+                Sample.class.getDeclaredMethod("add", int.class, long.class, String.class));
+        ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 10000; i++) {
+            ReflectiveTarget.get(handle);
+        }
+
+        long allocated = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            ReflectiveTarget.get(handle);
+        }
+        allocated = bean.getThreadAllocatedBytes(threadId) - allocated;
+
+        assertTrue(allocated < 1024, allocated + " bytes allocated");
+    }
+}
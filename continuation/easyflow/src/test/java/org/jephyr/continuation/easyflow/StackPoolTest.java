@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.continuation.easyflow;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+public class StackPoolTest {
+
+    private StackPool pool;
+
+    @BeforeMethod
+    public void setUp() {
+        pool = StackPool.get();
+        while (pool.takePrimitiveStack(0).length > 0) {
+        }
+        while (pool.takeObjectStack(0).length > 0) {
+        }
+    }
+
+    @Test
+    public void testTakePrimitiveStackTooSmall() throws Exception {
+        long[] stack = new long[8];
+        pool.releasePrimitiveStack(stack);
+
+        long[] stack1 = pool.takePrimitiveStack(16);
+
+        assertNotSame(stack1, stack);
+        assertEquals(stack1.length, 16);
+        assertSame(pool.takePrimitiveStack(8), stack);
+    }
+
+    @Test
+    public void testTakeObjectStackTooSmall() throws Exception {
+        Object[] stack = new Object[8];
+        pool.releaseObjectStack(stack, 0);
+
+        Object[] stack1 = pool.takeObjectStack(16);
+
+        assertNotSame(stack1, stack);
+        assertEquals(stack1.length, 16);
+        assertSame(pool.takeObjectStack(8), stack);
+    }
+
+    @Test
+    public void testTakePrimitiveStackLargeEnough() throws Exception {
+        long[] stack1 = new long[8];
+        long[] stack2 = new long[32];
+        pool.releasePrimitiveStack(stack1);
+        pool.releasePrimitiveStack(stack2);
+        pool.releasePrimitiveStack(new long[4]);
+
+        assertSame(pool.takePrimitiveStack(16), stack2);
+        assertSame(pool.takePrimitiveStack(8), stack1);
+    }
+
+    @Test
+    public void testReleaseObjectStack() throws Exception {
+        Object[] stack = new Object[8];
+        stack[0] = "a";
+        stack[1] = "b";
+        pool.releaseObjectStack(stack, 2);
+
+        assertSame(pool.takeObjectStack(8), stack);
+        assertNull(stack[0]);
+        assertNull(stack[1]);
+    }
+
+    @Test
+    public void testReleasePrimitiveStackFull() throws Exception {
+        for (int i = 0; i < 16; i++) {
+            pool.releasePrimitiveStack(new long[8]);
+        }
+        long[] stack = new long[64];
+        pool.releasePrimitiveStack(stack);
+
+        assertSame(pool.takePrimitiveStack(64), stack);
+    }
+}
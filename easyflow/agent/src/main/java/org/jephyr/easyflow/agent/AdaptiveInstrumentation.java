@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.agent;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jephyr.continuation.UnsuspendableError;
+import org.jephyr.continuation.easyflow.ContinuationImpl;
+import org.jephyr.continuation.easyflow.UnsuspendableErrorListener;
+
+final class AdaptiveInstrumentation implements UnsuspendableErrorListener {
+
+    private static final String RUNTIME_PACKAGE = "org.jephyr.continuation.easyflow.";
+
+    private final ConcurrentMap<String, Set<String>> methodNames = new ConcurrentHashMap<>();
+    private final Set<String> pendingClassNames = ConcurrentHashMap.newKeySet();
+    private final Runnable retransformTask = this::retransformPendingClasses;
+    private final Instrumentation instrumentation;
+    private final ExecutorService executor;
+
+    AdaptiveInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "easyflow-retransformer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void install() {
+        ContinuationImpl.setUnsuspendableErrorListener(this);
+    }
+
+    Set<String> getMethodNames(String className) {
+        return methodNames.get(className);
+    }
+
+    @Override
+    public void onUnsuspendableError(UnsuspendableError unsuspendableError) {
+        boolean added = false;
+        for (StackTraceElement element : unsuspendableError.getStackTrace()) {
+            String className = element.getClassName();
+            if (className.startsWith(RUNTIME_PACKAGE)) {
+                if (className.equals(ContinuationImpl.class.getName()) && element.getMethodName().equals("resume")) {
+                    break;
+                }
+                continue;
+            }
+            if (element.isNativeMethod() || className.startsWith("java.") || className.startsWith("sun.")) {
+                continue;
+            }
+            Set<String> names =
+                    methodNames.computeIfAbsent(className.replace('.', '/'), k -> ConcurrentHashMap.newKeySet());
+            if (names.add(element.getMethodName())) {
+                pendingClassNames.add(className);
+                added = true;
+            }
+        }
+        if (added) {
+            executor.execute(retransformTask);
+        }
+    }
+
+    private void retransformPendingClasses() {
+        Collection<String> classNames = new ArrayList<>();
+        for (Iterator<String> i = pendingClassNames.iterator(); i.hasNext(); ) {
+            classNames.add(i.next());
+            i.remove();
+        }
+        if (classNames.isEmpty()) {
+            return;
+        }
+        for (Class<?> cls : instrumentation.getAllLoadedClasses()) {
+            if (classNames.contains(cls.getName()) && cls.getClassLoader() != null &&
+                    instrumentation.isModifiableClass(cls)) {
+                try {
+                    instrumentation.retransformClasses(cls);
+                } catch (Throwable e) {
+                    System.err.println("Failed to retransform class " + cls.getName());
+                    e.printStackTrace(System.err);
+                }
+            }
+        }
+    }
+}
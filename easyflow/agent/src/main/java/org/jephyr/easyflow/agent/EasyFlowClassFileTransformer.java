@@ -26,37 +26,82 @@ package org.jephyr.easyflow.agent;
 
 import java.lang.instrument.ClassFileTransformer;
 import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 import org.jephyr.easyflow.instrument.EasyFlowClassAdapter;
+import org.jephyr.easyflow.instrument.EasyFlowClassAdapter.ClassEntry;
 import org.jephyr.easyflow.instrument.MethodRef;
+import org.jephyr.easyflow.instrument.SuspendableMethodIndex;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
+import static org.jephyr.common.agent.AgentUtils.defineClasses;
+import static org.jephyr.common.agent.ConstantPoolScanner.hasMethodRefs;
 import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
 
 final class EasyFlowClassFileTransformer implements ClassFileTransformer {
 
     private final Pattern methodRefPattern;
+    private final SuspendableMethodIndex index;
+    private final AdaptiveInstrumentation adaptive;
+    private final int flags;
 
-    EasyFlowClassFileTransformer(Pattern methodRefPattern) {
+    EasyFlowClassFileTransformer(Pattern methodRefPattern, SuspendableMethodIndex index,
+            AdaptiveInstrumentation adaptive, int flags) {
         this.methodRefPattern = methodRefPattern;
+        this.index = index;
+        this.adaptive = adaptive;
+        this.flags = flags;
     }
 
     @Override
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
             ProtectionDomain protectionDomain, byte[] classfileBuffer) {
         try {
-            Predicate<MethodRef> methodRefPredicate;
-            if (methodRefPattern == null || className == null) {
+            boolean monitors = (flags & EasyFlowClassAdapter.SUSPENDABLE_MONITORS) != 0;
+            if (className == null || adaptive != null && (loader == null || className.startsWith("java/") ||
+                    className.startsWith("sun/")) || !monitors && !hasMethodRefs(classfileBuffer)) {
+                return null;
+            }
+            Predicate<MethodRef> methodRefPredicate = null;
+            if (index != null) {
+                methodRefPredicate = new IndexPredicate(index, className);
+            }
+            if (methodRefPattern != null) {
+                methodRefPredicate = or(methodRefPredicate, new MethodRefPredicate(methodRefPattern, className));
+            }
+            if (adaptive != null) {
+                Set<String> methodNames = adaptive.getMethodNames(className);
+                if (methodNames != null) {
+                    methodRefPredicate = or(methodRefPredicate, t -> methodNames.contains(t.getName()));
+                }
+            }
+            if (methodRefPredicate == null) {
+                if (!monitors) {
+                    return null;
+                }
                 methodRefPredicate = t -> false;
-            } else {
-                methodRefPredicate = new MethodRefPredicate(methodRefPattern, className);
             }
             ClassReader reader = new ClassReader(classfileBuffer);
             ClassWriter writer = new ClassWriter(0);
-            reader.accept(new EasyFlowClassAdapter(methodRefPredicate, writer), EXPAND_FRAMES);
+            EasyFlowClassAdapter cv = new EasyFlowClassAdapter(methodRefPredicate, flags, writer);
+            reader.accept(cv, EXPAND_FRAMES);
+            if (!cv.isChanged()) {
+                return null;
+            }
+            Collection<ClassEntry> classEntries = cv.getClassEntries();
+            if (classEntries != null && !classEntries.isEmpty()) {
+                Map<String, byte[]> classes = new LinkedHashMap<>();
+                for (ClassEntry entry : classEntries) {
+                    classes.put(entry.name, entry.bytes);
+                }
+                defineClasses(loader, protectionDomain, classes);
+            }
             return writer.toByteArray();
         } catch (Throwable e) {
             System.err.println("Failed to transform class " + className);
@@ -65,6 +110,10 @@ final class EasyFlowClassFileTransformer implements ClassFileTransformer {
         }
     }
 
+    private static Predicate<MethodRef> or(Predicate<MethodRef> predicate, Predicate<MethodRef> other) {
+        return predicate == null ? other : predicate.or(other);
+    }
+
     private static final class MethodRefPredicate implements Predicate<MethodRef> {
 
         private final Pattern pattern;
@@ -80,4 +129,20 @@ final class EasyFlowClassFileTransformer implements ClassFileTransformer {
             return pattern.matcher(className + '.' + t.getName() + t.getDesc()).find();
         }
     }
+
+    private static final class IndexPredicate implements Predicate<MethodRef> {
+
+        private final SuspendableMethodIndex index;
+        private final String className;
+
+        IndexPredicate(SuspendableMethodIndex index, String className) {
+            this.index = index;
+            this.className = className;
+        }
+
+        @Override
+        public boolean test(MethodRef t) {
+            return index.contains(className, t.getName(), t.getDesc());
+        }
+    }
 }
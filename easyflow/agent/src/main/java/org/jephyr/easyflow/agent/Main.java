@@ -25,20 +25,83 @@
 package org.jephyr.easyflow.agent;
 
 import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.nio.file.Paths;
 import java.util.Properties;
-import java.util.regex.Pattern;
 
+import org.jephyr.common.agent.CachingClassFileTransformer;
+import org.jephyr.easyflow.instrument.EasyFlowClassAdapter;
+import org.jephyr.easyflow.instrument.SuspendableMethodIndex;
+
+import static org.jephyr.common.agent.AgentUtils.getConfiguration;
+import static org.jephyr.common.agent.AgentUtils.getPattern;
 import static org.jephyr.common.agent.AgentUtils.parseArgs;
 
 public final class Main {
 
     public static void premain(String agentArgs, Instrumentation inst) throws IOException {
         Properties props = parseArgs(agentArgs);
-        inst.addTransformer(new EasyFlowClassFileTransformer(getPattern(props.getProperty("methods"))));
+        SuspendableMethodIndex index = getIndex(props.getProperty("index"));
+        int flags = getFlags(props);
+        AdaptiveInstrumentation adaptive = null;
+        if (Boolean.parseBoolean(props.getProperty("adaptive"))) {
+            if (inst.isRetransformClassesSupported()) {
+                adaptive = new AdaptiveInstrumentation(inst);
+                flags = ignoreForAdaptive(flags, EasyFlowClassAdapter.CLONE_METHODS, "cloneMethods");
+                flags = ignoreForAdaptive(flags, EasyFlowClassAdapter.OUTLINE_SUSPEND, "outlineSuspend");
+                flags = ignoreForAdaptive(flags, EasyFlowClassAdapter.SUSPENDABLE_MONITORS, "suspendableMonitors");
+                flags = ignoreForAdaptive(flags, EasyFlowClassAdapter.DESUGAR_LAMBDAS, "desugarLambdas");
+                flags |= EasyFlowClassAdapter.RETRANSFORMABLE;
+            } else {
+                System.err.println("Ignoring adaptive because class retransformation is not supported");
+            }
+        }
+        ClassFileTransformer transformer =
+                new EasyFlowClassFileTransformer(getPattern(props.getProperty("methods")), index, adaptive, flags);
+        String cache = props.getProperty("cache");
+        if (cache != null) {
+            if ((flags & EasyFlowClassAdapter.DESUGAR_LAMBDAS) == 0) {
+                transformer = new CachingClassFileTransformer(transformer, Paths.get(cache),
+                        getConfiguration(props, Main.class));
+            } else {
+                System.err.println("Ignoring cache " + cache + " because desugarLambdas is enabled");
+            }
+        }
+        if (adaptive == null) {
+            inst.addTransformer(transformer);
+        } else {
+            inst.addTransformer(transformer, true);
+            adaptive.install();
+        }
+    }
+
+    private static SuspendableMethodIndex getIndex(String path) throws IOException {
+        return path == null ? null : SuspendableMethodIndex.load(Paths.get(path));
+    }
+
+    private static int ignoreForAdaptive(int flags, int flag, String name) {
+        if ((flags & flag) == 0) {
+            return flags;
+        }
+        System.err.println("Ignoring " + name + " because adaptive is enabled");
+        return flags & ~flag;
     }
 
-    private static Pattern getPattern(String regex) {
-        return regex == null ? null : Pattern.compile(regex);
+    private static int getFlags(Properties props) {
+        int flags = 0;
+        if (Boolean.parseBoolean(props.getProperty("cloneMethods"))) {
+            flags |= EasyFlowClassAdapter.CLONE_METHODS;
+        }
+        if (Boolean.parseBoolean(props.getProperty("outlineSuspend"))) {
+            flags |= EasyFlowClassAdapter.OUTLINE_SUSPEND;
+        }
+        if (Boolean.parseBoolean(props.getProperty("suspendableMonitors"))) {
+            flags |= EasyFlowClassAdapter.SUSPENDABLE_MONITORS;
+        }
+        if (Boolean.parseBoolean(props.getProperty("desugarLambdas"))) {
+            flags |= EasyFlowClassAdapter.DESUGAR_LAMBDAS;
+        }
+        return flags;
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.agent;
+
+import java.lang.instrument.Instrumentation;
+
+import org.jephyr.continuation.UnsuspendableError;
+import org.jephyr.continuation.easyflow.ContinuationImpl;
+import org.jephyr.continuation.easyflow.EasyFlowContinuation;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.Collections.singleton;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class AdaptiveInstrumentationTest {
+
+    private Instrumentation instrumentation;
+    private AdaptiveInstrumentation adaptive;
+
+    static class Sample {
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        instrumentation = mock(Instrumentation.class);
+        when(instrumentation.getAllLoadedClasses()).thenReturn(new Class<?>[] { String.class, Sample.class });
+        when(instrumentation.isModifiableClass(Sample.class)).thenReturn(true);
+        when(instrumentation.isModifiableClass(String.class)).thenReturn(true);
+        adaptive = new AdaptiveInstrumentation(instrumentation);
+    }
+
+    @Test
+    public void testRetransformOnUnsuspendableError() throws Exception {
+        adaptive.onUnsuspendableError(newUnsuspendableError(
+                new StackTraceElement(Sample.class.getName(), "run", null, -1)));
+
+        verify(instrumentation, timeout(1000)).retransformClasses(Sample.class);
+        assertEquals(adaptive.getMethodNames("org/jephyr/easyflow/agent/AdaptiveInstrumentationTest$Sample"),
+                singleton("run"));
+    }
+
+    @Test
+    public void testSkipJdkFrames() throws Exception {
+        adaptive.onUnsuspendableError(newUnsuspendableError(
+                new StackTraceElement(String.class.getName(), "chars", null, -1)));
+
+        verify(instrumentation, after(100).never()).retransformClasses(String.class);
+        assertNull(adaptive.getMethodNames("java/lang/String"));
+    }
+
+    private static UnsuspendableError newUnsuspendableError(StackTraceElement element) {
+        UnsuspendableError unsuspendableError = new UnsuspendableError();
+        unsuspendableError.setStackTrace(new StackTraceElement[] {
+                new StackTraceElement(ContinuationImpl.class.getName(), "suspend", null, -1),
+                new StackTraceElement(EasyFlowContinuation.class.getName(), "suspend", null, -1),
+                element,
+                new StackTraceElement(ContinuationImpl.class.getName(), "resume", null, -1),
+                new StackTraceElement(AdaptiveInstrumentationTest.class.getName(), "test", null, -1) });
+        return unsuspendableError;
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+import static java.util.Objects.requireNonNull;
+import static org.objectweb.asm.ClassReader.SKIP_DEBUG;
+import static org.objectweb.asm.ClassReader.SKIP_FRAMES;
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.H_INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.H_INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.H_INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.H_NEWINVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+
+public final class CallGraphAnalyzer {
+
+    private static final String RUNTIME_PACKAGE = "org/jephyr/continuation/";
+    private static final Collection<MethodInfo> UNKNOWN_TARGETS = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Map<String, ClassInfo> classes = new HashMap<>();
+    private final Map<String, ClassInfo> libraryClasses = new HashMap<>();
+    private final Map<String, Collection<ClassInfo>> subtypes = new HashMap<>();
+    private final Collection<LambdaInfo> lambdas = new ArrayList<>();
+    private final Map<String, Collection<MethodInfo>> targets = new HashMap<>();
+    private final Map<String, Integer> pending = new HashMap<>();
+    private int minPendingDepth = Integer.MAX_VALUE;
+
+    public void addClass(byte[] buffer) {
+        ClassReader reader = new ClassReader(buffer);
+        if (!classes.containsKey(reader.getClassName())) {
+            reader.accept(new ClassAdapter(), SKIP_DEBUG | SKIP_FRAMES);
+        }
+    }
+
+    public void analyze(BiPredicate<String, MethodRef> predicate) {
+        requireNonNull(predicate);
+
+        for (ClassInfo info : classes.values()) {
+            for (String name : getSupertypes(info)) {
+                subtypes.computeIfAbsent(name, k -> new ArrayList<>()).add(info);
+            }
+        }
+
+        Deque<MethodInfo> queue = new ArrayDeque<>();
+
+        for (ClassInfo info : classes.values()) {
+            for (MethodInfo method : info.methods.values()) {
+                method.included = predicate.test(info.name, method.ref);
+                boolean suspendable = false;
+                for (MethodInsnNode insn : method.calls) {
+                    if (isSuspendPoint(insn)) {
+                        suspendable = true;
+                        continue;
+                    }
+                    Collection<MethodInfo> targets = getTargets(insn);
+                    if (targets == UNKNOWN_TARGETS) {
+                        suspendable = true;
+                    } else {
+                        for (MethodInfo target : targets) {
+                            target.callers.add(method);
+                        }
+                    }
+                }
+                if (suspendable && method.included) {
+                    method.suspendable = true;
+                    queue.add(method);
+                }
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            MethodInfo method = queue.remove();
+            for (MethodInfo caller : method.callers) {
+                if (caller.included && !caller.suspendable) {
+                    caller.suspendable = true;
+                    queue.add(caller);
+                }
+            }
+        }
+    }
+
+    public Predicate<MethodRef> getMethodRefPredicate(String className) {
+        ClassInfo info = classes.get(className);
+        if (info == null) {
+            throw new IllegalArgumentException("Class " + className + " not found");
+        }
+        return t -> {
+            MethodInfo method = info.methods.get(t);
+            if (method == null) {
+                throw new IllegalArgumentException("Method " + t.getName() + t.getDesc() + " not found");
+            }
+            return method.suspendable;
+        };
+    }
+
+    private static boolean isSuspendPoint(MethodInsnNode insn) {
+        if (insn.owner.startsWith(RUNTIME_PACKAGE)) {
+            return insn.name.equals("suspend") || insn.name.equals("suspendContinuation");
+        }
+        if (insn.owner.equals("java/lang/reflect/Method")) {
+            return insn.name.equals("invoke");
+        }
+        if (insn.owner.equals("java/lang/invoke/MethodHandle")) {
+            return insn.name.startsWith("invoke");
+        }
+        return false;
+    }
+
+    private Collection<MethodInfo> getTargets(MethodInsnNode insn) {
+        if (insn.owner.charAt(0) == '[' || insn.owner.startsWith(RUNTIME_PACKAGE) ||
+                insn.getOpcode() == INVOKESPECIAL && insn.name.charAt(0) == '<') {
+            return Collections.emptyList();
+        }
+        String key = insn.getOpcode() + insn.owner + '.' + insn.name + insn.desc;
+        Collection<MethodInfo> targets = this.targets.get(key);
+        if (targets != null) {
+            return targets;
+        }
+        Integer pendingDepth = pending.get(key);
+        if (pendingDepth != null) {
+            if (minPendingDepth > pendingDepth) {
+                minPendingDepth = pendingDepth;
+            }
+            return Collections.emptyList();
+        }
+        int depth = pending.size();
+        pending.put(key, depth);
+        int minPendingDepth = this.minPendingDepth;
+        this.minPendingDepth = Integer.MAX_VALUE;
+        MethodRef ref = new MethodRef(insn.name, insn.desc);
+        if (insn.getOpcode() == INVOKESTATIC || insn.getOpcode() == INVOKESPECIAL) {
+            targets = findDeclaredTargets(insn.owner, ref);
+        } else {
+            targets = findVirtualTargets(insn.owner, ref);
+        }
+        pending.remove(key);
+        if (this.minPendingDepth >= depth || targets == UNKNOWN_TARGETS) {
+            this.targets.put(key, targets);
+        }
+        if (this.minPendingDepth > minPendingDepth) {
+            this.minPendingDepth = minPendingDepth;
+        }
+        return targets;
+    }
+
+    private Collection<MethodInfo> findDeclaredTargets(String owner, MethodRef ref) {
+        Collection<MethodInfo> targets = new ArrayList<>();
+        String name = owner;
+        while (name != null) {
+            ClassInfo info = getClassInfo(name);
+            if (info == null) {
+                return UNKNOWN_TARGETS;
+            }
+            MethodInfo method = info.methods.get(ref);
+            if (method != null) {
+                targets.add(method);
+                return targets;
+            }
+            name = info.superName;
+        }
+        return findDefaultTargets(owner, ref);
+    }
+
+    private Collection<MethodInfo> findVirtualTargets(String owner, MethodRef ref) {
+        Collection<MethodInfo> targets = new HashSet<>();
+        if (!addImplementation(targets, owner, ref)) {
+            return UNKNOWN_TARGETS;
+        }
+        Collection<ClassInfo> infos = subtypes.get(owner);
+        if (infos != null) {
+            for (ClassInfo info : infos) {
+                if (!addImplementation(targets, info.name, ref)) {
+                    return UNKNOWN_TARGETS;
+                }
+            }
+        }
+        for (LambdaInfo lambda : lambdas) {
+            if (lambda.ref.equals(ref) && isSubtype(lambda.itf, owner)) {
+                if (isSuspendPoint(lambda.impl)) {
+                    return UNKNOWN_TARGETS;
+                }
+                Collection<MethodInfo> targets1 = getTargets(lambda.impl);
+                if (targets1 == UNKNOWN_TARGETS) {
+                    return UNKNOWN_TARGETS;
+                }
+                targets.addAll(targets1);
+            }
+        }
+        return targets;
+    }
+
+    private boolean addImplementation(Collection<MethodInfo> targets, String owner, MethodRef ref) {
+        String name = owner;
+        while (name != null) {
+            ClassInfo info = getClassInfo(name);
+            if (info == null) {
+                return false;
+            }
+            MethodInfo method = info.methods.get(ref);
+            if (method != null && (method.access & (ACC_ABSTRACT | ACC_STATIC)) == 0) {
+                targets.add(method);
+                return true;
+            }
+            name = info.superName;
+        }
+        Collection<MethodInfo> targets1 = findDefaultTargets(owner, ref);
+        if (targets1 == UNKNOWN_TARGETS) {
+            return false;
+        }
+        targets.addAll(targets1);
+        return true;
+    }
+
+    private Collection<MethodInfo> findDefaultTargets(String owner, MethodRef ref) {
+        ClassInfo info = getClassInfo(owner);
+        if (info == null) {
+            return UNKNOWN_TARGETS;
+        }
+        Collection<MethodInfo> targets = new ArrayList<>();
+        for (String name : getSupertypes(info)) {
+            ClassInfo info1 = getClassInfo(name);
+            if (info1 == null) {
+                return UNKNOWN_TARGETS;
+            }
+            MethodInfo method = info1.methods.get(ref);
+            if (method != null && (method.access & (ACC_ABSTRACT | ACC_STATIC)) == 0) {
+                targets.add(method);
+            }
+        }
+        return targets;
+    }
+
+    private boolean isSubtype(String name, String supertype) {
+        ClassInfo info = getClassInfo(name);
+        return info == null || getSupertypes(info).contains(supertype);
+    }
+
+    private Set<String> getSupertypes(ClassInfo info) {
+        if (info.supertypes == null) {
+            Set<String> supertypes = new LinkedHashSet<>();
+            supertypes.add(info.name);
+            if (info.superName != null) {
+                addSupertypes(supertypes, info.superName);
+            }
+            for (String name : info.interfaces) {
+                addSupertypes(supertypes, name);
+            }
+            info.supertypes = supertypes;
+        }
+        return info.supertypes;
+    }
+
+    private void addSupertypes(Set<String> supertypes, String name) {
+        ClassInfo info = getClassInfo(name);
+        if (info == null) {
+            supertypes.add(name);
+        } else {
+            supertypes.addAll(getSupertypes(info));
+        }
+    }
+
+    private ClassInfo getClassInfo(String name) {
+        ClassInfo info = classes.get(name);
+        if (info != null) {
+            return info;
+        }
+        if (!name.startsWith("java/")) {
+            return null;
+        }
+        info = libraryClasses.get(name);
+        if (info == null) {
+            info = new ClassInfo();
+            info.name = name;
+            info.interfaces = new String[0];
+            try (InputStream in = ClassLoader.getSystemResourceAsStream(name + ".class")) {
+                if (in != null) {
+                    ClassReader reader = new ClassReader(in);
+                    info.superName = reader.getSuperName();
+                    info.interfaces = reader.getInterfaces();
+                }
+            } catch (IOException ignored) {
+            }
+            libraryClasses.put(name, info);
+        }
+        return info;
+    }
+
+    private static int getOpcode(int tag) {
+        switch (tag) {
+            case H_INVOKESTATIC:
+                return INVOKESTATIC;
+            case H_INVOKESPECIAL:
+            case H_NEWINVOKESPECIAL:
+                return INVOKESPECIAL;
+            case H_INVOKEINTERFACE:
+                return INVOKEINTERFACE;
+            default:
+                return INVOKEVIRTUAL;
+        }
+    }
+
+    private static final class ClassInfo {
+
+        final Map<MethodRef, MethodInfo> methods = new HashMap<>();
+        String name;
+        String superName;
+        String[] interfaces;
+        Set<String> supertypes;
+    }
+
+    private static final class MethodInfo {
+
+        final Collection<MethodInsnNode> calls = new ArrayList<>();
+        final Collection<MethodInfo> callers = new ArrayList<>();
+        final MethodRef ref;
+        final int access;
+        boolean included;
+        boolean suspendable;
+
+        MethodInfo(MethodRef ref, int access) {
+            this.ref = ref;
+            this.access = access;
+        }
+    }
+
+    private static final class LambdaInfo {
+
+        final String itf;
+        final MethodRef ref;
+        final MethodInsnNode impl;
+
+        LambdaInfo(String itf, MethodRef ref, MethodInsnNode impl) {
+            this.itf = itf;
+            this.ref = ref;
+            this.impl = impl;
+        }
+    }
+
+    private final class ClassAdapter extends ClassVisitor {
+
+        private ClassInfo info;
+
+        ClassAdapter() {
+            super(ASM5);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                String[] interfaces) {
+            info = new ClassInfo();
+            info.name = name;
+            info.superName = superName;
+            info.interfaces = interfaces == null ? new String[0] : interfaces;
+            classes.put(name, info);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodInfo method = new MethodInfo(new MethodRef(name, desc), access);
+            info.methods.put(method.ref, method);
+            return new MethodVisitor(ASM5) {
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                    method.calls.add(new MethodInsnNode(opcode, owner, name, desc, itf));
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+                    if (bsm.getOwner().equals("java/lang/invoke/LambdaMetafactory") && bsmArgs.length >= 2 &&
+                            bsmArgs[0] instanceof Type && bsmArgs[1] instanceof Handle) {
+                        Handle impl = (Handle) bsmArgs[1];
+                        lambdas.add(new LambdaInfo(Type.getReturnType(desc).getInternalName(),
+                                new MethodRef(name, ((Type) bsmArgs[0]).getDescriptor()),
+                                new MethodInsnNode(getOpcode(impl.getTag()), impl.getOwner(), impl.getName(),
+                                        impl.getDesc(), impl.getTag() == H_INVOKEINTERFACE)));
+                    }
+                }
+            };
+        }
+    }
+}
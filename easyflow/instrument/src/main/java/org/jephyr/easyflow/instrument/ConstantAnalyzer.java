@@ -0,0 +1,219 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACONST_NULL;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.BIPUSH;
+import static org.objectweb.asm.Opcodes.DCONST_1;
+import static org.objectweb.asm.Opcodes.DSTORE;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.LDC;
+import static org.objectweb.asm.Opcodes.LSTORE;
+import static org.objectweb.asm.Opcodes.SIPUSH;
+
+final class ConstantAnalyzer {
+
+    private static final Object THIS = new Object();
+    private static final Object NON_CONSTANT = new Object();
+
+    private final Map<AbstractInsnNode, Object[]> values = new HashMap<>();
+
+    ConstantAnalyzer(ControlFlowGraph graph, int access, String desc, int maxLocals) {
+        AbstractInsnNode[] nodes = graph.nodes;
+        int n = nodes.length;
+        if (n == 0) {
+            return;
+        }
+
+        Object[] initialValues = new Object[maxLocals];
+        int var = 0;
+        if ((access & ACC_STATIC) == 0) {
+            initialValues[var++] = THIS;
+        }
+        for (Type type : Type.getArgumentTypes(desc)) {
+            for (int i = 0, size = type.getSize(); i < size; i++) {
+                initialValues[var++] = NON_CONSTANT;
+            }
+        }
+
+        Object[][] valuesIn = new Object[n][];
+        valuesIn[0] = initialValues;
+
+        Deque<Integer> queue = new ArrayDeque<>();
+        BitSet queued = new BitSet();
+        queue.add(0);
+        queued.set(0);
+
+        while (!queue.isEmpty()) {
+            int i = queue.poll();
+            queued.clear(i);
+            Object[] in = valuesIn[i];
+            Object[] out = execute(nodes[i], in);
+            BitSet successors = graph.successors[i];
+            for (int j = successors.nextSetBit(0); j >= 0; j = successors.nextSetBit(j + 1)) {
+                if (merge(valuesIn, j, out) && !queued.get(j)) {
+                    queue.add(j);
+                    queued.set(j);
+                }
+            }
+            BitSet handlers = graph.handlers[i];
+            for (int j = handlers.nextSetBit(0); j >= 0; j = handlers.nextSetBit(j + 1)) {
+                if (merge(valuesIn, j, in) && !queued.get(j)) {
+                    queue.add(j);
+                    queued.set(j);
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (valuesIn[i] != null) {
+                values.put(nodes[i], valuesIn[i]);
+            }
+        }
+    }
+
+    boolean isThis(AbstractInsnNode node, int var) {
+        Object[] values1 = values.get(node);
+        return values1 != null && values1[var] == THIS;
+    }
+
+    AbstractInsnNode getConstant(AbstractInsnNode node, int var) {
+        Object[] values1 = values.get(node);
+        if (values1 == null) {
+            return null;
+        }
+        Object value = values1[var];
+        if (value instanceof AbstractInsnNode) {
+            return copy((AbstractInsnNode) value);
+        }
+        return null;
+    }
+
+    private static Object[] execute(AbstractInsnNode node, Object[] in) {
+        if (node instanceof VarInsnNode) {
+            int opcode = node.getOpcode();
+            if (opcode >= ISTORE && opcode <= ASTORE) {
+                int var = ((VarInsnNode) node).var;
+                Object[] out = in.clone();
+                AbstractInsnNode previous = node.getPrevious();
+                out[var] = isConstant(previous) ? previous : NON_CONSTANT;
+                if (opcode == LSTORE || opcode == DSTORE) {
+                    out[var + 1] = NON_CONSTANT;
+                }
+                return out;
+            }
+        } else if (node instanceof IincInsnNode) {
+            Object[] out = in.clone();
+            out[((IincInsnNode) node).var] = NON_CONSTANT;
+            return out;
+        }
+        return in;
+    }
+
+    private static boolean merge(Object[][] valuesIn, int index, Object[] values) {
+        Object[] values1 = valuesIn[index];
+        if (values1 == null) {
+            valuesIn[index] = values;
+            return true;
+        }
+        Object[] merged = null;
+        for (int i = 0, n = values1.length; i < n; i++) {
+            Object value = merge(values1[i], values[i]);
+            if (value != values1[i]) {
+                if (merged == null) {
+                    merged = values1.clone();
+                }
+                merged[i] = value;
+            }
+        }
+        if (merged == null) {
+            return false;
+        }
+        valuesIn[index] = merged;
+        return true;
+    }
+
+    private static Object merge(Object value1, Object value2) {
+        if (value1 == null || value1 == value2) {
+            return value2;
+        }
+        if (value2 == null || isSameConstant(value1, value2)) {
+            return value1;
+        }
+        return NON_CONSTANT;
+    }
+
+    private static boolean isSameConstant(Object value1, Object value2) {
+        if (!(value1 instanceof AbstractInsnNode) || !(value2 instanceof AbstractInsnNode)) {
+            return false;
+        }
+        AbstractInsnNode node1 = (AbstractInsnNode) value1;
+        AbstractInsnNode node2 = (AbstractInsnNode) value2;
+        if (node1.getOpcode() != node2.getOpcode()) {
+            return false;
+        }
+        if (node1 instanceof IntInsnNode) {
+            return ((IntInsnNode) node1).operand == ((IntInsnNode) node2).operand;
+        }
+        if (node1 instanceof LdcInsnNode) {
+            return ((LdcInsnNode) node1).cst.equals(((LdcInsnNode) node2).cst);
+        }
+        return true;
+    }
+
+    private static boolean isConstant(AbstractInsnNode node) {
+        if (node == null) {
+            return false;
+        }
+        int opcode = node.getOpcode();
+        return opcode >= ACONST_NULL && opcode <= DCONST_1 || opcode == BIPUSH || opcode == SIPUSH || opcode == LDC;
+    }
+
+    private static AbstractInsnNode copy(AbstractInsnNode node) {
+        if (node instanceof IntInsnNode) {
+            return new IntInsnNode(node.getOpcode(), ((IntInsnNode) node).operand);
+        }
+        if (node instanceof LdcInsnNode) {
+            return new LdcInsnNode(((LdcInsnNode) node).cst);
+        }
+        return new InsnNode(node.getOpcode());
+    }
+}
@@ -28,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
@@ -35,6 +36,7 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.AnalyzerAdapter;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.IntInsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
@@ -46,7 +48,9 @@ import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
 import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
 import static org.objectweb.asm.Opcodes.ACONST_NULL;
 import static org.objectweb.asm.Opcodes.ALOAD;
 import static org.objectweb.asm.Opcodes.ARETURN;
@@ -97,19 +101,30 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
     private static final Object[] EMPTY_OBJECTS = new Object[0];
 
     private final String owner;
+    private final Predicate<String> trustedClasses;
+    private final boolean invocationHooks;
+    private final MethodIdFields methodIdFields;
+    private final SuspendMethods suspendMethods;
     private final MethodVisitor mv;
 
     private ContinuationMethodAdapter(String owner, int access, String name, String desc, String signature,
-            String[] exceptions, MethodVisitor mv) {
+            String[] exceptions, Predicate<String> trustedClasses, MethodIdFields methodIdFields,
+            SuspendMethods suspendMethods, MethodVisitor mv) {
         super(access, name, desc, signature, exceptions);
         this.owner = owner;
+        this.trustedClasses = trustedClasses;
+        invocationHooks = trustedClasses == null || (access & ACC_SYNTHETIC) != 0 ||
+                (access & (ACC_STATIC | ACC_PRIVATE)) == 0;
+        this.methodIdFields = methodIdFields;
+        this.suspendMethods = suspendMethods;
         this.mv = mv;
     }
 
     static MethodVisitor create(String owner, int access, String name, String desc, String signature,
-            String[] exceptions, MethodVisitor mv) {
-        ContinuationMethodAdapter adapter =
-                new ContinuationMethodAdapter(owner, access, name, desc, signature, exceptions, mv);
+            String[] exceptions, Predicate<String> trustedClasses, MethodIdFields methodIdFields,
+            SuspendMethods suspendMethods, MethodVisitor mv) {
+        ContinuationMethodAdapter adapter = new ContinuationMethodAdapter(owner, access, name, desc, signature,
+                exceptions, trustedClasses, methodIdFields, suspendMethods, mv);
         AnalyzerAdapter analyzerAdapter = new AnalyzerAdapter(owner, access, name, desc, adapter);
         adapter.adapter = analyzerAdapter;
         return analyzerAdapter;
@@ -124,6 +139,10 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
             return;
         }
 
+        ControlFlowGraph graph = new ControlFlowGraph(instructions, tryCatchBlocks);
+        LivenessAnalyzer liveness = new LivenessAnalyzer(graph);
+        ConstantAnalyzer constants = new ConstantAnalyzer(graph, access, desc, maxLocals);
+
         int implVarIndex = maxLocals;
         maxLocals += 1;
 
@@ -141,7 +160,9 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
             instructions.insert(labelNode, newFrameNode(initialLocals, EMPTY_OBJECTS));
         }
 
-        addInvocationEndedHook(implVarIndex, labelNode);
+        if (invocationHooks) {
+            addInvocationEndedHook(implVarIndex, labelNode);
+        }
 
         instructions.insertBefore(labelNode,
                 new MethodInsnNode(INVOKESTATIC, "org/jephyr/continuation/easyflow/ContinuationImpl", "currentImpl",
@@ -156,7 +177,7 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                 new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl", "isSuspended",
                         "()Z", false));
 
-        LabelNode labelNode1 = newLabelNode();
+        LabelNode labelNode1 = invocationHooks ? newLabelNode() : labelNode;
 
         instructions.insertBefore(labelNode, new JumpInsnNode(IFEQ, labelNode1));
 
@@ -195,22 +216,30 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
             instructions.insertBefore(labelNode, labelNode2);
             instructions.insert(labelNode2, newFrameNode(initialLocals, EMPTY_OBJECTS));
 
-            int intCount = length > 0 ? 1 : 0;
-            int floatCount = 0;
-            int longCount = 0;
-            int doubleCount = 0;
+            int primitiveCount = length > 0 ? 1 : 0;
             int objectCount = 0;
 
             for (int j = 0, n = locals.length; j < n; j++) {
                 Object value = locals[j];
-                if (value == INTEGER) {
+                AbstractInsnNode constant = isPrimitiveOrReference(value) ? constants.getConstant(node, j) : null;
+                if (constants.isThis(node, j)) {
+                    // the receiver is passed again by the caller on resume
+                } else if (isPrimitiveOrReference(value) && !liveness.isLive(node, j)) {
+                    instructions.insertBefore(labelNode, newPushDefaultNode(value));
+                    instructions.insertBefore(labelNode, new VarInsnNode(getStoreOpcode(value), j));
+                    updateMaxStack(isLong(value) ? 2 : 1);
+                } else if (constant != null) {
+                    instructions.insertBefore(labelNode, constant);
+                    instructions.insertBefore(labelNode, new VarInsnNode(getStoreOpcode(value), j));
+                    updateMaxStack(isLong(value) ? 2 : 1);
+                } else if (value == INTEGER) {
                     instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
                     instructions.insertBefore(labelNode,
                             new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
                                     "popInt", "()I", false));
                     instructions.insertBefore(labelNode, new VarInsnNode(ISTORE, j));
                     updateMaxStack(1);
-                    intCount++;
+                    primitiveCount++;
                 } else if (value == FLOAT) {
                     instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
                     instructions.insertBefore(labelNode,
@@ -218,7 +247,7 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                                     "popFloat", "()F", false));
                     instructions.insertBefore(labelNode, new VarInsnNode(FSTORE, j));
                     updateMaxStack(1);
-                    floatCount++;
+                    primitiveCount++;
                 } else if (value == LONG) {
                     instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
                     instructions.insertBefore(labelNode,
@@ -226,7 +255,7 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                                     "popLong", "()J", false));
                     instructions.insertBefore(labelNode, new VarInsnNode(LSTORE, j));
                     updateMaxStack(2);
-                    longCount++;
+                    primitiveCount++;
                 } else if (value == DOUBLE) {
                     instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
                     instructions.insertBefore(labelNode,
@@ -234,7 +263,7 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                                     "popDouble", "()D", false));
                     instructions.insertBefore(labelNode, new VarInsnNode(DSTORE, j));
                     updateMaxStack(2);
-                    doubleCount++;
+                    primitiveCount++;
                 } else if (value == NULL) {
                     instructions.insertBefore(labelNode, new InsnNode(ACONST_NULL));
                     instructions.insertBefore(labelNode, new VarInsnNode(ASTORE, j));
@@ -270,28 +299,28 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                             new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
                                     "popInt", "()I", false));
                     stackSize += 1;
-                    intCount++;
+                    primitiveCount++;
                 } else if (value == FLOAT) {
                     instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
                     instructions.insertBefore(labelNode,
                             new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
                                     "popFloat", "()F", false));
                     stackSize += 1;
-                    floatCount++;
+                    primitiveCount++;
                 } else if (value == LONG) {
                     instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
                     instructions.insertBefore(labelNode,
                             new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
                                     "popLong", "()J", false));
                     stackSize += 2;
-                    longCount++;
+                    primitiveCount++;
                 } else if (value == DOUBLE) {
                     instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
                     instructions.insertBefore(labelNode,
                             new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
                                     "popDouble", "()D", false));
                     stackSize += 2;
-                    doubleCount++;
+                    primitiveCount++;
                 } else if (value == NULL) {
                     instructions.insertBefore(labelNode, new InsnNode(ACONST_NULL));
                     stackSize += 1;
@@ -384,13 +413,9 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                     instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, targetVarIndex));
                 }
 
-                instructions.insertBefore(labelNode,
-                        new MethodInsnNode(INVOKEVIRTUAL, "java/lang/reflect/Method", "getParameterTypes",
-                                "()[Ljava/lang/Class;", false));
-
                 instructions.insertBefore(labelNode,
                         new MethodInsnNode(INVOKESTATIC, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "getDefaultArguments", "([Ljava/lang/Class;)[Ljava/lang/Object;", false));
+                                "getDefaultArguments", "(Ljava/lang/reflect/Method;)[Ljava/lang/Object;", false));
                 stackSize += 3;
             } else {
                 targetVarIndex = -1;
@@ -413,7 +438,26 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                 }
                 stackSize += 1;
 
-                for (Type type : Type.getArgumentTypes(node.desc)) {
+                Type[] argumentTypes = Type.getArgumentTypes(node.desc);
+                int j = 0;
+
+                Object value1 = argumentTypes.length == 0 ? null : stack[stack.length - argSize + 1];
+                if (isMethodHandleInvocation(node) && value1 instanceof String) {
+                    objVarIndex = implVarIndex + 2;
+                    instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
+                    instructions.insertBefore(labelNode,
+                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                    "popObject", "()Ljava/lang/Object;", false));
+                    instructions.insertBefore(labelNode, new VarInsnNode(ASTORE, objVarIndex));
+                    instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, objVarIndex));
+                    instructions.insertBefore(labelNode, new TypeInsnNode(CHECKCAST, (String) value1));
+                    stackSize += 1;
+                    objectCount++;
+                    j++;
+                }
+
+                for (int n = argumentTypes.length; j < n; j++) {
+                    Type type = argumentTypes[j];
                     instructions.insertBefore(labelNode, newPushDefaultNode(type));
                     stackSize += type.getSize();
                 }
@@ -430,21 +474,24 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
             // invocation starting
 
             if (invokeStatic) {
-                instructions.insertBefore(node, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(node, new JumpInsnNode(IFNULL, labelNode3));
-
-                instructions.insertBefore(node, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(node, new LdcInsnNode(Type.getType('L' + node.owner + ';')));
-                instructions.insertBefore(node, new LdcInsnNode(node.name));
-                instructions.insertBefore(node, new LdcInsnNode(node.desc));
-                instructions.insertBefore(node,
-                        new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "staticInvocationStarting", "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/String;)V",
-                                false));
+                if (isInvocationAnnounced(node)) {
+                    instructions.insertBefore(node, new VarInsnNode(ALOAD, implVarIndex));
+                    instructions.insertBefore(node, new JumpInsnNode(IFNULL, labelNode3));
+
+                    instructions.insertBefore(node, new VarInsnNode(ALOAD, implVarIndex));
+                    instructions.insertBefore(node, new LdcInsnNode(Type.getType('L' + node.owner + ';')));
+                    instructions.insertBefore(node, methodIdFields.newGetFieldNode(node.name, node.desc));
+                    instructions.insertBefore(node,
+                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                    "staticInvocationStarting", "(Ljava/lang/Class;I)V", false));
+                }
 
                 instructions.insertBefore(node, labelNode3);
-                instructions.insert(labelNode3, newFrameNode(appendValue(ensureSize(locals, implVarIndex),
-                        "org/jephyr/continuation/easyflow/ContinuationImpl"), stack));
+
+                if (!isPreviousFrameNode(labelNode3)) {
+                    instructions.insert(labelNode3, newFrameNode(appendValue(ensureSize(locals, implVarIndex),
+                            "org/jephyr/continuation/easyflow/ContinuationImpl"), stack));
+                }
             } else if (node.owner.equals("java/lang/reflect/Method") && node.name.equals("invoke") &&
                     node.desc.equals("(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;")) {
                 instructions.insertBefore(node, new VarInsnNode(ALOAD, implVarIndex));
@@ -461,14 +508,14 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                         targetVarIndex == -1 ? new InsnNode(POP) : new VarInsnNode(ASTORE, targetVarIndex));
 
                 instructions.insertBefore(node, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(node,
-                        targetVarIndex == -1 ? new InsnNode(ACONST_NULL) : new VarInsnNode(ALOAD, targetVarIndex));
+                instructions.insertBefore(node, targetVarIndex == -1 ? new InsnNode(ACONST_NULL) :
+                        new VarInsnNode(ALOAD, targetVarIndex));
                 instructions.insertBefore(node,
                         objVarIndex == -1 ? new InsnNode(ACONST_NULL) : new VarInsnNode(ALOAD, objVarIndex));
                 instructions.insertBefore(node,
                         new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "reflectiveInvocationStarting", "(Ljava/lang/reflect/Method;Ljava/lang/Object;)V",
-                                false));
+                                "reflectiveInvocationStarting",
+                                "(Ljava/lang/reflect/Method;Ljava/lang/Object;)V", false));
 
                 instructions.insertBefore(node,
                         targetVarIndex == -1 ? new InsnNode(ACONST_NULL) : new VarInsnNode(ALOAD, targetVarIndex));
@@ -515,11 +562,13 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                 instructions.insertBefore(node, new JumpInsnNode(IFNULL, labelNode4));
 
                 targetVarIndex = implVarIndex + 1;
-                int varIndex = targetVarIndex + 1;
+                int varIndex = objVarIndex == -1 ? targetVarIndex + 1 : objVarIndex + 1;
 
                 for (int j = stack.length - 1, k = stack.length - argSize + 1; j >= k; j--) {
                     Object value = stack[j];
-                    if (value == INTEGER) {
+                    if (j == k && objVarIndex != -1) {
+                        instructions.insertBefore(node, new VarInsnNode(ASTORE, objVarIndex));
+                    } else if (value == INTEGER) {
                         instructions.insertBefore(node, new VarInsnNode(ISTORE, varIndex));
                         varIndex += 1;
                     } else if (value == FLOAT) {
@@ -548,7 +597,9 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
 
                 for (int j = stack.length - argSize + 1, n = stack.length; j < n; j++) {
                     Object value = stack[j];
-                    if (value == INTEGER) {
+                    if (j == stack.length - argSize + 1 && objVarIndex != -1) {
+                        instructions.insertBefore(node, new VarInsnNode(ALOAD, objVarIndex));
+                    } else if (value == INTEGER) {
                         varIndex -= 1;
                         instructions.insertBefore(node, new VarInsnNode(ILOAD, varIndex));
                     } else if (value == FLOAT) {
@@ -568,14 +619,22 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                     }
                 }
 
-                instructions.insertBefore(node, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(node, new VarInsnNode(ALOAD, targetVarIndex));
-                instructions.insertBefore(node, new LdcInsnNode(node.name));
-                instructions.insertBefore(node, new LdcInsnNode(node.desc));
-                instructions.insertBefore(node,
-                        new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "invocationStarting", "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/String;)V",
-                                false));
+                if (isMethodHandleInvocation(node) || isInvocationAnnounced(node)) {
+                    instructions.insertBefore(node, new VarInsnNode(ALOAD, implVarIndex));
+                    instructions.insertBefore(node, new VarInsnNode(ALOAD, targetVarIndex));
+                    if (isMethodHandleInvocation(node)) {
+                        instructions.insertBefore(node, objVarIndex == -1 ? new InsnNode(ACONST_NULL) :
+                                new VarInsnNode(ALOAD, objVarIndex));
+                        instructions.insertBefore(node, new MethodInsnNode(INVOKEVIRTUAL,
+                                "org/jephyr/continuation/easyflow/ContinuationImpl", "methodHandleInvocationStarting",
+                                "(Ljava/lang/invoke/MethodHandle;Ljava/lang/Object;)V", false));
+                    } else {
+                        instructions.insertBefore(node, methodIdFields.newGetFieldNode(node.name, node.desc));
+                        instructions.insertBefore(node, new MethodInsnNode(INVOKEVIRTUAL,
+                                "org/jephyr/continuation/easyflow/ContinuationImpl", "invocationStarting",
+                                "(Ljava/lang/Object;I)V", false));
+                    }
+                }
 
                 instructions.insertBefore(node, new JumpInsnNode(GOTO, labelNode3));
 
@@ -586,9 +645,17 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                 instructions.insertBefore(node, new InsnNode(ACONST_NULL));
                 instructions.insertBefore(node, new VarInsnNode(ASTORE, targetVarIndex));
 
+                Object[] locals1 = appendValues(ensureSize(locals, implVarIndex),
+                        "org/jephyr/continuation/easyflow/ContinuationImpl", "java/lang/Object");
+
+                if (objVarIndex != -1) {
+                    instructions.insertBefore(node, new InsnNode(ACONST_NULL));
+                    instructions.insertBefore(node, new VarInsnNode(ASTORE, objVarIndex));
+                    locals1 = appendValue(locals1, "java/lang/Object");
+                }
+
                 instructions.insertBefore(node, labelNode3);
-                instructions.insert(labelNode3, newFrameNode(appendValues(ensureSize(locals, implVarIndex),
-                        "org/jephyr/continuation/easyflow/ContinuationImpl", "java/lang/Object"), stack));
+                instructions.insert(labelNode3, newFrameNode(locals1, stack));
             }
 
             updateMaxStack(stack.length + 4);
@@ -626,179 +693,174 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
                 stackSize1 -= 2;
             }
 
-            if (intCount > 0) {
-                instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(labelNode4, newPushNode(intCount));
-                instructions.insertBefore(labelNode4,
-                        new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "ensureIntStackSize", "(I)V", false));
-                updateMaxStack(stackSize1 + 1);
-            }
-
-            if (floatCount > 0) {
-                instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(labelNode4, newPushNode(floatCount));
-                instructions.insertBefore(labelNode4,
-                        new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "ensureFloatStackSize", "(I)V", false));
-                updateMaxStack(stackSize1 + 1);
-            }
+            InsnList suspendInsns = suspendMethods == null ? null :
+                    newSuspendMethodInsns(node, stack, argSize, locals, liveness, constants, implVarIndex,
+                            targetVarIndex, objVarIndex, primitiveCount, objectCount, length > 0 ? i : -1, stackSize1);
 
-            if (longCount > 0) {
-                instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(labelNode4, newPushNode(longCount));
-                instructions.insertBefore(labelNode4,
-                        new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "ensureLongStackSize", "(I)V", false));
-                updateMaxStack(stackSize1 + 1);
-            }
+            if (suspendInsns != null) {
+                instructions.insertBefore(labelNode4, suspendInsns);
+            } else {
+                if (primitiveCount > 0) {
+                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                    instructions.insertBefore(labelNode4, newPushNode(primitiveCount));
+                    instructions.insertBefore(labelNode4,
+                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                    "ensurePrimitiveStackSize", "(I)V", false));
+                    updateMaxStack(stackSize1 + 1);
+                }
 
-            if (doubleCount > 0) {
-                instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(labelNode4, newPushNode(doubleCount));
-                instructions.insertBefore(labelNode4,
-                        new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "ensureDoubleStackSize", "(I)V", false));
-                updateMaxStack(stackSize1 + 1);
-            }
+                if (objectCount > 0) {
+                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                    instructions.insertBefore(labelNode4, newPushNode(objectCount));
+                    instructions.insertBefore(labelNode4,
+                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                    "ensureObjectStackSize", "(I)V", false));
+                    updateMaxStack(stackSize1 + 1);
+                }
 
-            if (objectCount > 0) {
-                instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(labelNode4, newPushNode(objectCount));
-                instructions.insertBefore(labelNode4,
-                        new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "ensureObjectStackSize", "(I)V", false));
-                updateMaxStack(stackSize1 + 1);
-            }
+                if (!invokeStatic) {
+                    if (node.owner.equals("java/lang/reflect/Method") && node.name.equals("invoke") &&
+                            node.desc.equals("(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;")) {
+                        if (objVarIndex != -1) {
+                            instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                            instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, objVarIndex));
+                            instructions.insertBefore(labelNode4, new MethodInsnNode(INVOKEVIRTUAL,
+                                    "org/jephyr/continuation/easyflow/ContinuationImpl", "pushObject",
+                                    "(Ljava/lang/Object;)V", false));
+                            updateMaxStack(stackSize1 + 2);
+                        }
+                        if (targetVarIndex != -1) {
+                            instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                            instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, targetVarIndex));
+                            instructions.insertBefore(labelNode4, new MethodInsnNode(INVOKEVIRTUAL,
+                                    "org/jephyr/continuation/easyflow/ContinuationImpl", "pushObject",
+                                    "(Ljava/lang/Object;)V", false));
+                            updateMaxStack(stackSize1 + 2);
+                        }
+                    } else {
+                        if (objVarIndex != -1) {
+                            instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                            instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, objVarIndex));
+                            instructions.insertBefore(labelNode4, new MethodInsnNode(INVOKEVIRTUAL,
+                                    "org/jephyr/continuation/easyflow/ContinuationImpl", "pushObject",
+                                    "(Ljava/lang/Object;)V", false));
+                            updateMaxStack(stackSize1 + 2);
+                        }
+                        if (stack[stack.length - argSize] != NULL) {
+                            instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                            instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, targetVarIndex));
+                            instructions.insertBefore(labelNode4, new MethodInsnNode(INVOKEVIRTUAL,
+                                    "org/jephyr/continuation/easyflow/ContinuationImpl", "pushObject",
+                                    "(Ljava/lang/Object;)V", false));
+                            updateMaxStack(stackSize1 + 2);
+                        }
+                    }
+                }
 
-            if (!invokeStatic) {
-                if (node.owner.equals("java/lang/reflect/Method") && node.name.equals("invoke") &&
-                        node.desc.equals("(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;")) {
-                    if (objVarIndex != -1) {
+                for (int j = stack.length - argSize - 1; j >= 0; j--) {
+                    Object value = stack[j];
+                    if (value == INTEGER) {
                         instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, objVarIndex));
+                        instructions.insertBefore(labelNode4, new InsnNode(SWAP));
                         instructions.insertBefore(labelNode4,
                                 new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                        "pushObject", "(Ljava/lang/Object;)V", false));
+                                        "pushInt", "(I)V", false));
+                        updateMaxStack(stackSize1 + 1);
+                        stackSize1 -= 1;
+                    } else if (value == FLOAT) {
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                        instructions.insertBefore(labelNode4, new InsnNode(SWAP));
+                        instructions.insertBefore(labelNode4,
+                                new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                        "pushFloat", "(F)V", false));
+                        updateMaxStack(stackSize1 + 1);
+                        stackSize1 -= 1;
+                    } else if (value == LONG) {
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                        instructions.insertBefore(labelNode4, new InsnNode(DUP_X2));
+                        instructions.insertBefore(labelNode4, new InsnNode(POP));
+                        instructions.insertBefore(labelNode4,
+                                new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                        "pushLong", "(J)V", false));
                         updateMaxStack(stackSize1 + 2);
-                    }
-                    if (targetVarIndex != -1) {
+                        stackSize1 -= 2;
+                    } else if (value == DOUBLE) {
                         instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, targetVarIndex));
+                        instructions.insertBefore(labelNode4, new InsnNode(DUP_X2));
+                        instructions.insertBefore(labelNode4, new InsnNode(POP));
                         instructions.insertBefore(labelNode4,
                                 new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                        "pushObject", "(Ljava/lang/Object;)V", false));
+                                        "pushDouble", "(D)V", false));
                         updateMaxStack(stackSize1 + 2);
+                        stackSize1 -= 2;
+                    } else if (value == NULL) {
+                        instructions.insertBefore(labelNode4, new InsnNode(POP));
+                        stackSize1 -= 1;
+                    } else if (value instanceof String) {
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                        instructions.insertBefore(labelNode4, new InsnNode(SWAP));
+                        instructions.insertBefore(labelNode4,
+                                new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                        "pushObject", "(Ljava/lang/Object;)V", false));
+                        updateMaxStack(stackSize1 + 1);
+                        stackSize1 -= 1;
                     }
-                } else if (stack[stack.length - argSize] != NULL) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, targetVarIndex));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushObject", "(Ljava/lang/Object;)V", false));
-                    updateMaxStack(stackSize1 + 2);
                 }
-            }
 
-            for (int j = stack.length - argSize - 1; j >= 0; j--) {
-                Object value = stack[j];
-                if (value == INTEGER) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new InsnNode(SWAP));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushInt", "(I)V", false));
-                    updateMaxStack(stackSize1 + 1);
-                    stackSize1 -= 1;
-                } else if (value == FLOAT) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new InsnNode(SWAP));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushFloat", "(F)V", false));
-                    updateMaxStack(stackSize1 + 1);
-                    stackSize1 -= 1;
-                } else if (value == LONG) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new InsnNode(DUP_X2));
-                    instructions.insertBefore(labelNode4, new InsnNode(POP));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushLong", "(J)V", false));
-                    updateMaxStack(stackSize1 + 2);
-                    stackSize1 -= 2;
-                } else if (value == DOUBLE) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new InsnNode(DUP_X2));
-                    instructions.insertBefore(labelNode4, new InsnNode(POP));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushDouble", "(D)V", false));
-                    updateMaxStack(stackSize1 + 2);
-                    stackSize1 -= 2;
-                } else if (value == NULL) {
-                    instructions.insertBefore(labelNode4, new InsnNode(POP));
-                    stackSize1 -= 1;
-                } else if (value instanceof String) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new InsnNode(SWAP));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushObject", "(Ljava/lang/Object;)V", false));
-                    updateMaxStack(stackSize1 + 1);
-                    stackSize1 -= 1;
+                for (int j = locals.length - 1; j >= 0; j--) {
+                    Object value = locals[j];
+                    if (!liveness.isLive(node, j) || constants.isThis(node, j) ||
+                            constants.getConstant(node, j) != null) {
+                        continue;
+                    }
+                    if (value == INTEGER) {
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ILOAD, j));
+                        instructions.insertBefore(labelNode4,
+                                new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                        "pushInt", "(I)V", false));
+                        updateMaxStack(stackSize1 + 2);
+                    } else if (value == FLOAT) {
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                        instructions.insertBefore(labelNode4, new VarInsnNode(FLOAD, j));
+                        instructions.insertBefore(labelNode4,
+                                new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                        "pushFloat", "(F)V", false));
+                        updateMaxStack(stackSize1 + 2);
+                    } else if (value == LONG) {
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                        instructions.insertBefore(labelNode4, new VarInsnNode(LLOAD, j));
+                        instructions.insertBefore(labelNode4,
+                                new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                        "pushLong", "(J)V", false));
+                        updateMaxStack(stackSize1 + 3);
+                    } else if (value == DOUBLE) {
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                        instructions.insertBefore(labelNode4, new VarInsnNode(DLOAD, j));
+                        instructions.insertBefore(labelNode4,
+                                new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                        "pushDouble", "(D)V", false));
+                        updateMaxStack(stackSize1 + 3);
+                    } else if (value instanceof String) {
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
+                        instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, j));
+                        instructions.insertBefore(labelNode4,
+                                new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                                        "pushObject", "(Ljava/lang/Object;)V", false));
+                        updateMaxStack(stackSize1 + 2);
+                    }
                 }
-            }
 
-            for (int j = locals.length - 1; j >= 0; j--) {
-                Object value = locals[j];
-                if (value == INTEGER) {
+                if (length > 0) {
                     instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ILOAD, j));
+                    instructions.insertBefore(labelNode4, newPushNode(i));
                     instructions.insertBefore(labelNode4,
                             new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
                                     "pushInt", "(I)V", false));
                     updateMaxStack(stackSize1 + 2);
-                } else if (value == FLOAT) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new VarInsnNode(FLOAD, j));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushFloat", "(F)V", false));
-                    updateMaxStack(stackSize1 + 2);
-                } else if (value == LONG) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new VarInsnNode(LLOAD, j));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushLong", "(J)V", false));
-                    updateMaxStack(stackSize1 + 3);
-                } else if (value == DOUBLE) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new VarInsnNode(DLOAD, j));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushDouble", "(D)V", false));
-                    updateMaxStack(stackSize1 + 3);
-                } else if (value instanceof String) {
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                    instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, j));
-                    instructions.insertBefore(labelNode4,
-                            new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                    "pushObject", "(Ljava/lang/Object;)V", false));
-                    updateMaxStack(stackSize1 + 2);
                 }
             }
 
-            if (length > 0) {
-                instructions.insertBefore(labelNode4, new VarInsnNode(ALOAD, implVarIndex));
-                instructions.insertBefore(labelNode4, newPushNode(i));
-                instructions.insertBefore(labelNode4,
-                        new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                                "pushInt", "(I)V", false));
-                updateMaxStack(stackSize1 + 2);
-            }
-
             int returnSize1 = returnType.getSize();
             if (returnSize1 > 0) {
                 instructions.insertBefore(labelNode4, newPushDefaultNode(returnType));
@@ -808,14 +870,145 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
             instructions.insertBefore(labelNode4, new InsnNode(returnType.getOpcode(IRETURN)));
         }
 
-        instructions.insertBefore(labelNode, labelNode1);
-        instructions.insert(labelNode1, newFrameNode(initialLocals, EMPTY_OBJECTS));
+        if (invocationHooks) {
+            instructions.insertBefore(labelNode, labelNode1);
+            instructions.insert(labelNode1, newFrameNode(initialLocals, EMPTY_OBJECTS));
 
-        addInvocationStartedHook(implVarIndex, labelNode);
+            addInvocationStartedHook(implVarIndex, labelNode);
+        }
 
         accept(mv);
     }
 
+    private boolean isInvocationAnnounced(MethodInsnNode node) {
+        if (trustedClasses == null || !trustedClasses.test(node.owner)) {
+            return true;
+        }
+        int opcode = node.getOpcode();
+        return opcode != INVOKESTATIC && (opcode != INVOKESPECIAL || !node.owner.equals(owner)) ||
+                node.name.indexOf('$') != -1;
+    }
+
+    private InsnList newSuspendMethodInsns(MethodInsnNode node, Object[] stack, int argSize, Object[] locals,
+            LivenessAnalyzer liveness, ConstantAnalyzer constants, int implVarIndex, int targetVarIndex,
+            int objVarIndex, int primitiveCount, int objectCount, int index, int stackSize) {
+        InsnList insns = new InsnList();
+        StringBuilder suspendDesc = new StringBuilder("(");
+        InsnList suspendInsns = new InsnList();
+
+        int n = stack.length - argSize;
+        int[] varIndexes = new int[n];
+        int varIndex = 0;
+
+        for (int j = 0; j < n; j++) {
+            Object value = stack[j];
+            if (value != TOP) {
+                varIndexes[j] = varIndex;
+                suspendDesc.append(getDescriptor(value));
+                varIndex += isLong(value) ? 2 : 1;
+            }
+        }
+
+        int implIndex = varIndex;
+        varIndex++;
+
+        insns.add(new VarInsnNode(ALOAD, implVarIndex));
+        suspendDesc.append("Lorg/jephyr/continuation/easyflow/ContinuationImpl;");
+        stackSize++;
+
+        if (primitiveCount > 0) {
+            suspendInsns.add(new VarInsnNode(ALOAD, implIndex));
+            suspendInsns.add(newPushNode(primitiveCount));
+            suspendInsns.add(new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                    "ensurePrimitiveStackSize", "(I)V", false));
+        }
+
+        if (objectCount > 0) {
+            suspendInsns.add(new VarInsnNode(ALOAD, implIndex));
+            suspendInsns.add(newPushNode(objectCount));
+            suspendInsns.add(new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                    "ensureObjectStackSize", "(I)V", false));
+        }
+
+        Collection<Integer> targetVarIndexes = new ArrayList<>();
+        if (node.getOpcode() != INVOKESTATIC) {
+            if (node.owner.equals("java/lang/reflect/Method") && node.name.equals("invoke") &&
+                    node.desc.equals("(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;")) {
+                if (objVarIndex != -1) {
+                    targetVarIndexes.add(objVarIndex);
+                }
+                if (targetVarIndex != -1) {
+                    targetVarIndexes.add(targetVarIndex);
+                }
+            } else {
+                if (objVarIndex != -1) {
+                    targetVarIndexes.add(objVarIndex);
+                }
+                if (stack[stack.length - argSize] != NULL) {
+                    targetVarIndexes.add(targetVarIndex);
+                }
+            }
+        }
+
+        for (int targetVarIndex1 : targetVarIndexes) {
+            insns.add(new VarInsnNode(ALOAD, targetVarIndex1));
+            suspendDesc.append("Ljava/lang/Object;");
+            suspendInsns.add(new VarInsnNode(ALOAD, implIndex));
+            suspendInsns.add(new VarInsnNode(ALOAD, varIndex));
+            suspendInsns.add(newPushValueNode("java/lang/Object"));
+            varIndex++;
+            stackSize++;
+        }
+
+        for (int j = n - 1; j >= 0; j--) {
+            Object value = stack[j];
+            if (value != TOP && value != NULL) {
+                suspendInsns.add(new VarInsnNode(ALOAD, implIndex));
+                suspendInsns.add(new VarInsnNode(getLoadOpcode(value), varIndexes[j]));
+                suspendInsns.add(newPushValueNode(value));
+            }
+        }
+
+        for (int j = locals.length - 1; j >= 0; j--) {
+            Object value = locals[j];
+            if (!liveness.isLive(node, j) || constants.isThis(node, j) || constants.getConstant(node, j) != null ||
+                    !isPrimitiveOrReference(value)) {
+                continue;
+            }
+            int size = isLong(value) ? 2 : 1;
+            insns.add(new VarInsnNode(getLoadOpcode(value), j));
+            suspendDesc.append(getDescriptor(value));
+            suspendInsns.add(new VarInsnNode(ALOAD, implIndex));
+            suspendInsns.add(new VarInsnNode(getLoadOpcode(value), varIndex));
+            suspendInsns.add(newPushValueNode(value));
+            varIndex += size;
+            stackSize += size;
+        }
+
+        if (varIndex > 255) {
+            return null;
+        }
+
+        if (index != -1) {
+            suspendInsns.add(new VarInsnNode(ALOAD, implIndex));
+            suspendInsns.add(newPushNode(index));
+            suspendInsns.add(new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                    "pushInt", "(I)V", false));
+        }
+
+        suspendInsns.add(new InsnNode(RETURN));
+        suspendDesc.append(")V");
+
+        insns.add(suspendMethods.newInvokeNode(suspendDesc.toString(), suspendInsns, 3, varIndex));
+        updateMaxStack(stackSize);
+        return insns;
+    }
+
+    private static boolean isMethodHandleInvocation(MethodInsnNode node) {
+        return node.owner.equals("java/lang/invoke/MethodHandle") &&
+                (node.name.equals("invokeExact") || node.name.equals("invoke"));
+    }
+
     private List<MethodInsnNode> findNodes() {
         List<MethodInsnNode> nodes = new ArrayList<>();
         for (AbstractInsnNode next = instructions.getFirst(); next != null; next = next.getNext()) {
@@ -887,23 +1080,20 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
         if ((access & ACC_STATIC) == 0) {
             instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
             instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, 0));
-            instructions.insertBefore(labelNode, new LdcInsnNode(name));
-            instructions.insertBefore(labelNode, new LdcInsnNode(desc));
+            instructions.insertBefore(labelNode, methodIdFields.newGetFieldNode(name, desc));
             instructions.insertBefore(labelNode,
                     new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                            "invocationStarted", "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/String;)V", false));
+                            "invocationStarted", "(Ljava/lang/Object;I)V", false));
         } else {
             instructions.insertBefore(labelNode, new VarInsnNode(ALOAD, implVarIndex));
             instructions.insertBefore(labelNode, new LdcInsnNode(Type.getType('L' + owner + ';')));
-            instructions.insertBefore(labelNode, new LdcInsnNode(name));
-            instructions.insertBefore(labelNode, new LdcInsnNode(desc));
+            instructions.insertBefore(labelNode, methodIdFields.newGetFieldNode(name, desc));
             instructions.insertBefore(labelNode,
                     new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl",
-                            "staticInvocationStarted", "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/String;)V",
-                            false));
+                            "staticInvocationStarted", "(Ljava/lang/Class;I)V", false));
         }
 
-        updateMaxStack(4);
+        updateMaxStack(3);
     }
 
     private void addInvocationEndedHook(int implVarIndex, LabelNode labelNode) {
@@ -1047,6 +1237,99 @@ final class ContinuationMethodAdapter extends AnalyzingMethodNode {
         return false;
     }
 
+    private static boolean isPreviousFrameNode(AbstractInsnNode node) {
+        for (AbstractInsnNode previous = node.getPrevious(); previous != null && previous.getOpcode() == -1;
+                previous = previous.getPrevious()) {
+            if (previous instanceof FrameNode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPrimitiveOrReference(Object value) {
+        return value == INTEGER || value == FLOAT || value == LONG || value == DOUBLE || value instanceof String;
+    }
+
+    private static AbstractInsnNode newPushDefaultNode(Object value) {
+        if (value == INTEGER) {
+            return new InsnNode(ICONST_0);
+        } else if (value == FLOAT) {
+            return new InsnNode(FCONST_0);
+        } else if (value == LONG) {
+            return new InsnNode(LCONST_0);
+        } else if (value == DOUBLE) {
+            return new InsnNode(DCONST_0);
+        } else {
+            return new InsnNode(ACONST_NULL);
+        }
+    }
+
+    private static int getStoreOpcode(Object value) {
+        if (value == INTEGER) {
+            return ISTORE;
+        } else if (value == FLOAT) {
+            return FSTORE;
+        } else if (value == LONG) {
+            return LSTORE;
+        } else if (value == DOUBLE) {
+            return DSTORE;
+        } else {
+            return ASTORE;
+        }
+    }
+
+    private static int getLoadOpcode(Object value) {
+        if (value == INTEGER) {
+            return ILOAD;
+        } else if (value == FLOAT) {
+            return FLOAD;
+        } else if (value == LONG) {
+            return LLOAD;
+        } else if (value == DOUBLE) {
+            return DLOAD;
+        } else {
+            return ALOAD;
+        }
+    }
+
+    private static String getDescriptor(Object value) {
+        if (value == INTEGER) {
+            return "I";
+        } else if (value == FLOAT) {
+            return "F";
+        } else if (value == LONG) {
+            return "J";
+        } else if (value == DOUBLE) {
+            return "D";
+        } else {
+            return "Ljava/lang/Object;";
+        }
+    }
+
+    private static AbstractInsnNode newPushValueNode(Object value) {
+        String name;
+        String desc;
+        if (value == INTEGER) {
+            name = "pushInt";
+            desc = "(I)V";
+        } else if (value == FLOAT) {
+            name = "pushFloat";
+            desc = "(F)V";
+        } else if (value == LONG) {
+            name = "pushLong";
+            desc = "(J)V";
+        } else if (value == DOUBLE) {
+            name = "pushDouble";
+            desc = "(D)V";
+        } else {
+            name = "pushObject";
+            desc = "(Ljava/lang/Object;)V";
+        }
+        return new MethodInsnNode(INVOKEVIRTUAL, "org/jephyr/continuation/easyflow/ContinuationImpl", name, desc,
+                false);
+    }
+
     private static AbstractInsnNode newPushDefaultNode(Type type) {
         switch (type.getSort()) {
             case Type.FLOAT:
@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.RET;
+import static org.objectweb.asm.Opcodes.RETURN;
+
+final class ControlFlowGraph {
+
+    final AbstractInsnNode[] nodes;
+    final BitSet[] successors;
+    final BitSet[] handlers;
+
+    ControlFlowGraph(InsnList instructions, List<TryCatchBlockNode> tryCatchBlocks) {
+        nodes = instructions.toArray();
+        int n = nodes.length;
+
+        Map<AbstractInsnNode, Integer> indices = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            indices.put(nodes[i], i);
+        }
+
+        successors = new BitSet[n];
+        handlers = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            successors[i] = getSuccessors(nodes[i], i, n, indices);
+            handlers[i] = new BitSet();
+        }
+
+        for (TryCatchBlockNode tryCatchBlock : tryCatchBlocks) {
+            int handler = indices.get(tryCatchBlock.handler);
+            for (int i = indices.get(tryCatchBlock.start), end = indices.get(tryCatchBlock.end); i < end; i++) {
+                handlers[i].set(handler);
+            }
+        }
+    }
+
+    private static BitSet getSuccessors(AbstractInsnNode node, int index, int n,
+            Map<AbstractInsnNode, Integer> indices) {
+        BitSet successors = new BitSet();
+        int opcode = node.getOpcode();
+        if (node instanceof JumpInsnNode) {
+            successors.set(indices.get(((JumpInsnNode) node).label));
+            if (opcode == GOTO) {
+                return successors;
+            }
+        } else if (node instanceof TableSwitchInsnNode) {
+            TableSwitchInsnNode switchNode = (TableSwitchInsnNode) node;
+            successors.set(indices.get(switchNode.dflt));
+            for (LabelNode label : switchNode.labels) {
+                successors.set(indices.get(label));
+            }
+            return successors;
+        } else if (node instanceof LookupSwitchInsnNode) {
+            LookupSwitchInsnNode switchNode = (LookupSwitchInsnNode) node;
+            successors.set(indices.get(switchNode.dflt));
+            for (LabelNode label : switchNode.labels) {
+                successors.set(indices.get(label));
+            }
+            return successors;
+        } else if (opcode >= IRETURN && opcode <= RETURN || opcode == ATHROW || opcode == RET) {
+            return successors;
+        }
+        if (index + 1 < n) {
+            successors.set(index + 1);
+        }
+        return successors;
+    }
+}
@@ -24,55 +24,251 @@
 
 package org.jephyr.easyflow.instrument;
 
+import java.util.Collection;
 import java.util.function.Predicate;
 
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 
 import static java.util.Objects.requireNonNull;
 import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
 import static org.objectweb.asm.Opcodes.ACC_NATIVE;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
 import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
 import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.MONITORENTER;
+import static org.objectweb.asm.Opcodes.MONITOREXIT;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_5;
 import static org.objectweb.asm.Opcodes.V1_6;
+import static org.objectweb.asm.Opcodes.V1_7;
 
 public final class EasyFlowClassAdapter extends ClassVisitor {
 
+    public static final int CLONE_METHODS = 1;
+    public static final int OUTLINE_SUSPEND = 2;
+    public static final int RETRANSFORMABLE = 4;
+    public static final int SUSPENDABLE_MONITORS = 8;
+    public static final int DESUGAR_LAMBDAS = 16;
+
+    static final String INSTRUMENTED_DESC = "Lorg/jephyr/easyflow/instrument/Instrumented;";
+
     private final Predicate<MethodRef> methodRefPredicate;
+    private final int flags;
+    private final Predicate<String> trustedClassPredicate;
     private String name;
+    private boolean itf;
     private boolean instrument;
+    private boolean monitors;
+    private Predicate<String> trustedClasses;
+    private MethodIdFields methodIdFields;
+    private SuspendMethods suspendMethods;
+    private LambdaClasses lambdaClasses;
+    private Collection<ClassEntry> classEntries;
+    private MethodNode clinit;
+    private boolean changed;
 
     public EasyFlowClassAdapter(Predicate<MethodRef> methodRefPredicate, ClassVisitor cv) {
+        this(methodRefPredicate, 0, cv);
+    }
+
+    public EasyFlowClassAdapter(Predicate<MethodRef> methodRefPredicate, int flags, ClassVisitor cv) {
+        this(methodRefPredicate, flags, t -> false, cv);
+    }
+
+    public EasyFlowClassAdapter(Predicate<MethodRef> methodRefPredicate, int flags,
+            Predicate<String> trustedClassPredicate, ClassVisitor cv) {
         super(ASM5, cv);
         this.methodRefPredicate = requireNonNull(methodRefPredicate);
+        this.flags = (flags & RETRANSFORMABLE) == 0 ? flags :
+                flags & ~(CLONE_METHODS | OUTLINE_SUSPEND | SUSPENDABLE_MONITORS | DESUGAR_LAMBDAS);
+        this.trustedClassPredicate = requireNonNull(trustedClassPredicate);
+    }
+
+    public Collection<ClassEntry> getClassEntries() {
+        return classEntries;
+    }
+
+    public boolean isChanged() {
+        return changed;
     }
 
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
         this.name = name;
-        instrument = (version & 0xFF) >= V1_6;
+        itf = (access & ACC_INTERFACE) != 0;
+        boolean retransformable = (flags & RETRANSFORMABLE) != 0;
+        instrument = (version & 0xFF) >= (retransformable ? V1_7 : V1_6);
+        monitors = (flags & SUSPENDABLE_MONITORS) != 0 && (version & 0xFF) >= V1_5;
+        trustedClasses = retransformable || !trustedClassPredicate.test(name) ? null :
+                newTrustedClasses(name, trustedClassPredicate);
+        methodIdFields = new MethodIdFields(name, retransformable);
+        suspendMethods = (flags & OUTLINE_SUSPEND) == 0 ? null : new SuspendMethods(name, itf);
+        lambdaClasses = (flags & DESUGAR_LAMBDAS) == 0 || itf || !instrument ? null :
+                new LambdaClasses(name, version, methodRefPredicate);
         super.visit(version, access, name, signature, superName, interfaces);
 //        super.visitAnnotation("Lorg/jephyr/easyflow/instrument/Instrumented;", false);
     }
 
     @Override
     public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-//        if (desc.equals("Lorg/jephyr/easyflow/instrument/Instrumented;")) {
-//            instrument = false;
-//            return null;
-//        }
+        if (desc.equals(INSTRUMENTED_DESC)) {
+            instrument = false;
+            lambdaClasses = null;
+        }
         return super.visitAnnotation(desc, visible);
     }
 
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        MethodVisitor mv = visitMethod1(access, name, desc, signature, exceptions);
+        return lambdaClasses == null || mv == null ? mv : new LambdaMethodAdapter(mv);
+    }
+
+    private MethodVisitor visitMethod1(int access, String name, String desc, String signature,
+            String[] exceptions) {
+        boolean monitors = this.monitors && (access & (ACC_NATIVE | ACC_ABSTRACT)) == 0;
+        if (monitors && (access & ACC_SYNCHRONIZED) != 0) {
+            changed = true;
+        }
+        if (instrument && name.equals("<clinit>")) {
+            clinit = new MethodNode(ASM5, access, name, desc, signature, exceptions);
+            return monitors ? new ChangeTrackingMethodAdapter(false, true,
+                    new MonitorMethodAdapter(this.name, access, name, desc, signature, exceptions, clinit)) : clinit;
+        }
+        int excluded = (flags & SUSPENDABLE_MONITORS) == 0 ? ACC_SYNCHRONIZED | ACC_NATIVE | ACC_ABSTRACT :
+                ACC_NATIVE | ACC_ABSTRACT;
+        boolean instrumented = instrument && (access & excluded) == 0 && name.charAt(0) != '<' &&
+                methodRefPredicate.test(new MethodRef(name, desc));
+        MethodVisitor mv;
+        if (instrumented) {
+            mv = newMethodAdapter(monitors ? access & ~ACC_SYNCHRONIZED : access, name, desc, signature, exceptions);
+        } else if (monitors) {
+            mv = super.visitMethod(access & ~ACC_SYNCHRONIZED, name, desc, signature, exceptions);
+        } else {
+            return super.visitMethod(access, name, desc, signature, exceptions);
+        }
+        if (mv == null) {
+            return null;
+        }
+        if (monitors) {
+            mv = new MonitorMethodAdapter(this.name, access, name, desc, signature, exceptions, mv);
+        }
+        return new ChangeTrackingMethodAdapter(instrumented, monitors, mv);
+    }
+
+    private MethodVisitor newMethodAdapter(int access, String name, String desc, String signature,
+            String[] exceptions) {
+        if ((flags & CLONE_METHODS) != 0) {
+            return new FastPathMethodAdapter(this.name, itf, access, name, desc, signature, exceptions,
+                    trustedClasses, methodIdFields, suspendMethods, cv);
+        }
         MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
-        if (instrument && (access & (ACC_SYNCHRONIZED | ACC_NATIVE | ACC_ABSTRACT)) == 0 && name.charAt(0) != '<' &&
-                methodRefPredicate.test(new MethodRef(name, desc))) {
-            return NewRelocatorMethodAdapter.create(this.name, access, name, desc, signature, exceptions,
-                    ContinuationMethodAdapter.create(this.name, access, name, desc, signature, exceptions, mv));
+        return NewRelocatorMethodAdapter.create(this.name, access, name, desc, signature, exceptions,
+                ContinuationMethodAdapter.create(this.name, access, name, desc, signature, exceptions,
+                        trustedClasses, methodIdFields, suspendMethods, mv));
+    }
+
+    @Override
+    public void visitEnd() {
+        if (lambdaClasses != null) {
+            for (MethodNode node : lambdaClasses.getAccessors()) {
+                MethodVisitor mv = newMethodAdapter(node.access, node.name, node.desc, null, null);
+                if (mv != null) {
+                    node.accept(mv);
+                }
+            }
+            classEntries = lambdaClasses.newClassEntries(flags & ~DESUGAR_LAMBDAS,
+                    trustedClasses == null ? t -> false : trustedClasses);
+        }
+        if (suspendMethods != null) {
+            suspendMethods.visitMethods(cv);
+        }
+        if (!methodIdFields.isEmpty()) {
+            changed = true;
+            methodIdFields.visitFields(cv, itf);
+            if (clinit == null) {
+                clinit = new MethodNode(ASM5, ACC_STATIC, "<clinit>", "()V", null, null);
+                clinit.instructions.add(new InsnNode(RETURN));
+            }
+            clinit.instructions.insert(methodIdFields.newInitializerInsns());
+            if (clinit.maxStack < 2) {
+                clinit.maxStack = 2;
+            }
+        }
+        if (clinit != null) {
+            clinit.accept(cv);
+        }
+        super.visitEnd();
+    }
+
+    private static Predicate<String> newTrustedClasses(String name, Predicate<String> trustedClassPredicate) {
+        String lambdaPrefix = name + LambdaClasses.CLASS_NAME_PREFIX;
+        return t -> t.startsWith(lambdaPrefix) || trustedClassPredicate.test(t);
+    }
+
+    public static final class ClassEntry {
+
+        public final String name;
+        public final byte[] bytes;
+
+        ClassEntry(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+    }
+
+    private final class ChangeTrackingMethodAdapter extends MethodVisitor {
+
+        private final boolean invocations;
+        private final boolean monitors;
+
+        ChangeTrackingMethodAdapter(boolean invocations, boolean monitors, MethodVisitor mv) {
+            super(ASM5, mv);
+            this.invocations = invocations;
+            this.monitors = monitors;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (monitors && (opcode == MONITORENTER || opcode == MONITOREXIT)) {
+                changed = true;
+            }
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            if (invocations && (opcode != INVOKESPECIAL || name.charAt(0) != '<') ||
+                    monitors && MonitorMethodAdapter.isObjectMonitorMethod(name, desc)) {
+                changed = true;
+            }
+            super.visitMethodInsn(opcode, owner, name, desc, itf);
+        }
+    }
+
+    private final class LambdaMethodAdapter extends MethodVisitor {
+
+        LambdaMethodAdapter(MethodVisitor mv) {
+            super(ASM5, mv);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+            MethodInsnNode node = lambdaClasses.newFactoryInvokeNode(name, desc, bsm, bsmArgs);
+            if (node == null) {
+                super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+            } else {
+                changed = true;
+                node.accept(mv);
+            }
         }
-        return mv;
     }
 }
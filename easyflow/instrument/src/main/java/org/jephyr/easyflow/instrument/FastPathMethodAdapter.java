@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.function.Predicate;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PROTECTED;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.DOUBLE;
+import static org.objectweb.asm.Opcodes.F_NEW;
+import static org.objectweb.asm.Opcodes.FLOAT;
+import static org.objectweb.asm.Opcodes.IFNULL;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INTEGER;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.LONG;
+
+final class FastPathMethodAdapter extends MethodNode {
+
+    private static final String NAME_PREFIX = "easyflow$instrumented$";
+
+    private final String owner;
+    private final boolean itf;
+    private final Predicate<String> trustedClasses;
+    private final MethodIdFields methodIdFields;
+    private final SuspendMethods suspendMethods;
+    private final ClassVisitor cv;
+
+    FastPathMethodAdapter(String owner, boolean itf, int access, String name, String desc, String signature,
+            String[] exceptions, Predicate<String> trustedClasses, MethodIdFields methodIdFields,
+            SuspendMethods suspendMethods, ClassVisitor cv) {
+        super(ASM5, access, name, desc, signature, exceptions);
+        this.owner = owner;
+        this.itf = itf;
+        this.trustedClasses = trustedClasses;
+        this.methodIdFields = methodIdFields;
+        this.suspendMethods = suspendMethods;
+        this.cv = cv;
+    }
+
+    @Override
+    public void visitEnd() {
+        String[] exceptions = this.exceptions.toArray(new String[0]);
+        MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
+        if (mv == null) {
+            return;
+        }
+
+        if (!hasInvocations()) {
+            accept(mv);
+            return;
+        }
+
+        String copyName = NAME_PREFIX + name;
+        int copyAccess = access & ~(ACC_PUBLIC | ACC_PROTECTED) | ACC_PRIVATE | ACC_SYNTHETIC;
+        MethodVisitor copy = cv.visitMethod(copyAccess, copyName, desc, signature, exceptions);
+        if (copy != null) {
+            MethodNode node = new MethodNode(ASM5, access, name, desc, signature, exceptions);
+            node.instructions = instructions;
+            node.tryCatchBlocks = tryCatchBlocks;
+            node.localVariables = localVariables;
+            node.maxStack = maxStack;
+            node.maxLocals = maxLocals;
+            node.accept(NewRelocatorMethodAdapter.create(owner, access, name, desc, signature, exceptions,
+                    ContinuationMethodAdapter.create(owner, access, name, desc, signature, exceptions,
+                            trustedClasses, methodIdFields, suspendMethods, copy)));
+        }
+
+        instructions.resetLabels();
+        addDispatch(copyName);
+        accept(mv);
+    }
+
+    private boolean hasInvocations() {
+        for (AbstractInsnNode next = instructions.getFirst(); next != null; next = next.getNext()) {
+            if (next instanceof MethodInsnNode) {
+                MethodInsnNode node = (MethodInsnNode) next;
+                if (node.getOpcode() != INVOKESPECIAL || node.name.charAt(0) != '<') {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void addDispatch(String copyName) {
+        boolean isStatic = (access & ACC_STATIC) != 0;
+        LabelNode labelNode = new LabelNode();
+        InsnList insns = new InsnList();
+
+        insns.add(new MethodInsnNode(INVOKESTATIC, "org/jephyr/continuation/easyflow/ContinuationImpl", "currentImpl",
+                "()Lorg/jephyr/continuation/easyflow/ContinuationImpl;", false));
+        insns.add(new JumpInsnNode(IFNULL, labelNode));
+
+        Collection<Object> locals = new ArrayList<>();
+        int index = 0;
+        if (!isStatic) {
+            insns.add(new VarInsnNode(ALOAD, 0));
+            locals.add(owner);
+            index++;
+        }
+        for (Type type : Type.getArgumentTypes(desc)) {
+            insns.add(new VarInsnNode(type.getOpcode(ILOAD), index));
+            locals.add(getFrameValue(type));
+            index += type.getSize();
+        }
+
+        insns.add(new MethodInsnNode(isStatic ? INVOKESTATIC : INVOKESPECIAL, owner, copyName, desc, itf));
+        insns.add(new InsnNode(Type.getReturnType(desc).getOpcode(IRETURN)));
+        insns.add(labelNode);
+
+        if (!isFirstFrameNode()) {
+            Object[] locals1 = locals.toArray();
+            insns.add(new FrameNode(F_NEW, locals1.length, locals1, 0, new Object[0]));
+        }
+
+        instructions.insert(insns);
+
+        if (maxStack < index + 1) {
+            maxStack = index + 1;
+        }
+    }
+
+    private boolean isFirstFrameNode() {
+        for (AbstractInsnNode next = instructions.getFirst(); next != null && next.getOpcode() == -1;
+                next = next.getNext()) {
+            if (next instanceof FrameNode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object getFrameValue(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                return INTEGER;
+            case Type.FLOAT:
+                return FLOAT;
+            case Type.LONG:
+                return LONG;
+            case Type.DOUBLE:
+                return DOUBLE;
+            case Type.ARRAY:
+                return type.getDescriptor();
+            default:
+                return type.getInternalName();
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.jephyr.easyflow.instrument.EasyFlowClassAdapter.ClassEntry;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.InstructionAdapter;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.H_INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.H_INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+
+final class LambdaClasses {
+
+    static final String CLASS_NAME_PREFIX = "$easyflow$lambda$";
+    private static final String METHOD_NAME_PREFIX = "easyflow$lambda$";
+    private static final String FACTORY_NAME = "get$Lambda";
+    private static final String INSTANCE_NAME = "INSTANCE";
+    private static final Handle METAFACTORY_HANDLE =
+            new Handle(H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+                            "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;" +
+                            "Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;");
+
+    private final Collection<Lambda> lambdas = new ArrayList<>();
+    private final Collection<MethodNode> accessors = new ArrayList<>();
+    private final String owner;
+    private final int version;
+    private final Predicate<MethodRef> methodRefPredicate;
+
+    LambdaClasses(String owner, int version, Predicate<MethodRef> methodRefPredicate) {
+        this.owner = owner;
+        this.version = version;
+        this.methodRefPredicate = methodRefPredicate;
+    }
+
+    MethodInsnNode newFactoryInvokeNode(String name, String desc, Handle bsm, Object[] bsmArgs) {
+        if (!bsm.equals(METAFACTORY_HANDLE)) {
+            return null;
+        }
+        Handle implHandle = (Handle) bsmArgs[1];
+        int tag = implHandle.getTag();
+        if (!implHandle.getOwner().equals(owner) ||
+                tag != H_INVOKESTATIC && tag != H_INVOKEVIRTUAL && tag != H_INVOKESPECIAL ||
+                !methodRefPredicate.test(new MethodRef(implHandle.getName(), implHandle.getDesc()))) {
+            return null;
+        }
+
+        Type samType = (Type) bsmArgs[0];
+        Type implType = Type.getMethodType(implHandle.getDesc());
+        Type accessorType = tag == H_INVOKESTATIC ? implType :
+                Type.getMethodType(implType.getReturnType(), prepend(Type.getObjectType(owner),
+                        implType.getArgumentTypes()));
+        Type[] capturedTypes = Type.getArgumentTypes(desc);
+        if (capturedTypes.length + samType.getArgumentTypes().length != accessorType.getArgumentTypes().length ||
+                implType.getReturnType() == Type.VOID_TYPE && samType.getReturnType() != Type.VOID_TYPE) {
+            return null;
+        }
+
+        int index = lambdas.size();
+        String className = owner + CLASS_NAME_PREFIX + index;
+        String accessorName = METHOD_NAME_PREFIX + index;
+        lambdas.add(new Lambda(className, name, Type.getReturnType(desc), capturedTypes, samType,
+                (Type) bsmArgs[2], accessorName, accessorType));
+        accessors.add(newAccessorNode(accessorName, accessorType, implHandle));
+        return new MethodInsnNode(INVOKESTATIC, className, FACTORY_NAME, desc, false);
+    }
+
+    Collection<MethodNode> getAccessors() {
+        return accessors;
+    }
+
+    Collection<ClassEntry> newClassEntries(int flags, Predicate<String> trustedClassPredicate) {
+        Collection<ClassEntry> classEntries = new ArrayList<>();
+        for (Lambda lambda : lambdas) {
+            classEntries.add(new ClassEntry(lambda.className, toByteArray(lambda, flags, trustedClassPredicate)));
+        }
+        return classEntries;
+    }
+
+    private static MethodNode newAccessorNode(String name, Type type, Handle implHandle) {
+        MethodNode node = new MethodNode(ASM5, ACC_STATIC | ACC_SYNTHETIC, name, type.getDescriptor(), null, null);
+        InstructionAdapter adapter = new InstructionAdapter(node);
+        int size = 0;
+        for (Type argumentType : type.getArgumentTypes()) {
+            adapter.load(size, argumentType);
+            size += argumentType.getSize();
+        }
+        String owner = implHandle.getOwner();
+        String name1 = implHandle.getName();
+        String desc = implHandle.getDesc();
+        switch (implHandle.getTag()) {
+            case H_INVOKESTATIC:
+                adapter.invokestatic(owner, name1, desc, false);
+                break;
+            case H_INVOKEVIRTUAL:
+                adapter.invokevirtual(owner, name1, desc, false);
+                break;
+            default:
+                adapter.invokespecial(owner, name1, desc, false);
+                break;
+        }
+        Type returnType = type.getReturnType();
+        adapter.areturn(returnType);
+        node.maxStack = Math.max(size, returnType.getSize());
+        node.maxLocals = size;
+        return node;
+    }
+
+    private byte[] toByteArray(Lambda lambda, int flags, Predicate<String> trustedClassPredicate) {
+        ClassWriter writer = new ClassWriter(0);
+        String samDesc = lambda.samType.getDescriptor();
+        ClassVisitor cv = new EasyFlowClassAdapter(t -> t.getName().equals(lambda.samName) &&
+                t.getDesc().equals(samDesc), flags, trustedClassPredicate, writer);
+        cv.visit(version, ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, lambda.className, null, "java/lang/Object",
+                new String[] { lambda.interfaceType.getInternalName() });
+        writer.visitAnnotation(EasyFlowClassAdapter.INSTRUMENTED_DESC, false).visitEnd();
+
+        Type[] capturedTypes = lambda.capturedTypes;
+        for (int i = 0; i < capturedTypes.length; i++) {
+            cv.visitField(ACC_PRIVATE | ACC_FINAL, getFieldName(i), capturedTypes[i].getDescriptor(), null, null)
+                    .visitEnd();
+        }
+        Type classType = Type.getObjectType(lambda.className);
+        Type constructorType = Type.getMethodType(Type.VOID_TYPE, capturedTypes);
+        if (capturedTypes.length == 0) {
+            cv.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, INSTANCE_NAME, classType.getDescriptor(), null, null)
+                    .visitEnd();
+            visitClinit(cv, lambda.className, classType);
+        }
+        visitConstructor(cv, lambda.className, constructorType);
+        visitFactory(cv, lambda, classType, constructorType);
+        visitSamMethod(cv, lambda);
+        cv.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static void visitClinit(ClassVisitor cv, String className, Type classType) {
+        InstructionAdapter adapter =
+                new InstructionAdapter(cv.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null));
+        adapter.visitCode();
+        adapter.anew(classType);
+        adapter.dup();
+        adapter.invokespecial(className, "<init>", "()V", false);
+        adapter.putstatic(className, INSTANCE_NAME, classType.getDescriptor());
+        adapter.areturn(Type.VOID_TYPE);
+        adapter.visitMaxs(2, 0);
+        adapter.visitEnd();
+    }
+
+    private static void visitConstructor(ClassVisitor cv, String className, Type constructorType) {
+        InstructionAdapter adapter =
+                new InstructionAdapter(cv.visitMethod(ACC_PRIVATE, "<init>", constructorType.getDescriptor(), null,
+                        null));
+        adapter.visitCode();
+        adapter.load(0, Type.getObjectType(className));
+        adapter.invokespecial("java/lang/Object", "<init>", "()V", false);
+        Type[] capturedTypes = constructorType.getArgumentTypes();
+        int size = 1;
+        int maxStack = 1;
+        for (int i = 0; i < capturedTypes.length; i++) {
+            Type capturedType = capturedTypes[i];
+            adapter.load(0, Type.getObjectType(className));
+            adapter.load(size, capturedType);
+            adapter.putfield(className, getFieldName(i), capturedType.getDescriptor());
+            size += capturedType.getSize();
+            maxStack = Math.max(maxStack, 1 + capturedType.getSize());
+        }
+        adapter.areturn(Type.VOID_TYPE);
+        adapter.visitMaxs(maxStack, size);
+        adapter.visitEnd();
+    }
+
+    private static void visitFactory(ClassVisitor cv, Lambda lambda, Type classType, Type constructorType) {
+        Type[] capturedTypes = lambda.capturedTypes;
+        InstructionAdapter adapter = new InstructionAdapter(cv.visitMethod(ACC_STATIC, FACTORY_NAME,
+                Type.getMethodDescriptor(lambda.interfaceType, capturedTypes), null, null));
+        adapter.visitCode();
+        if (capturedTypes.length == 0) {
+            adapter.getstatic(lambda.className, INSTANCE_NAME, classType.getDescriptor());
+            adapter.areturn(classType);
+            adapter.visitMaxs(1, 0);
+        } else {
+            adapter.anew(classType);
+            adapter.dup();
+            int size = 0;
+            for (Type capturedType : capturedTypes) {
+                adapter.load(size, capturedType);
+                size += capturedType.getSize();
+            }
+            adapter.invokespecial(lambda.className, "<init>", constructorType.getDescriptor(), false);
+            adapter.areturn(classType);
+            adapter.visitMaxs(2 + size, size);
+        }
+        adapter.visitEnd();
+    }
+
+    private void visitSamMethod(ClassVisitor cv, Lambda lambda) {
+        MethodVisitor mv = cv.visitMethod(ACC_PUBLIC, lambda.samName, lambda.samType.getDescriptor(), null, null);
+        if (mv == null) {
+            return;
+        }
+        InstructionAdapter adapter = new InstructionAdapter(mv);
+        adapter.visitCode();
+
+        Type[] capturedTypes = lambda.capturedTypes;
+        Type[] samArgumentTypes = lambda.samType.getArgumentTypes();
+        Type[] instantiatedArgumentTypes = lambda.instantiatedType.getArgumentTypes();
+        Type[] accessorArgumentTypes = lambda.accessorType.getArgumentTypes();
+        int stackSize = 0;
+        for (int i = 0; i < capturedTypes.length; i++) {
+            adapter.load(0, Type.getObjectType(lambda.className));
+            adapter.getfield(lambda.className, getFieldName(i), capturedTypes[i].getDescriptor());
+            convert(adapter, capturedTypes[i], accessorArgumentTypes[i]);
+            stackSize += accessorArgumentTypes[i].getSize();
+        }
+        int size = 1;
+        for (int i = 0; i < samArgumentTypes.length; i++) {
+            Type samArgumentType = samArgumentTypes[i];
+            Type accessorArgumentType = accessorArgumentTypes[capturedTypes.length + i];
+            adapter.load(size, samArgumentType);
+            convert(adapter, samArgumentType, instantiatedArgumentTypes[i]);
+            convert(adapter, instantiatedArgumentTypes[i], accessorArgumentType);
+            size += samArgumentType.getSize();
+            stackSize += accessorArgumentType.getSize();
+        }
+        adapter.invokestatic(owner, lambda.accessorName, lambda.accessorType.getDescriptor(), false);
+
+        Type returnType = lambda.accessorType.getReturnType();
+        Type samReturnType = lambda.samType.getReturnType();
+        if (samReturnType == Type.VOID_TYPE) {
+            if (returnType.getSize() == 2) {
+                adapter.pop2();
+            } else if (returnType.getSize() == 1) {
+                adapter.pop();
+            }
+        } else {
+            convert(adapter, returnType, samReturnType);
+        }
+        adapter.areturn(samReturnType);
+        adapter.visitMaxs(stackSize + 2, size);
+        adapter.visitEnd();
+    }
+
+    private static void convert(InstructionAdapter adapter, Type from, Type to) {
+        if (from.equals(to)) {
+            return;
+        }
+        boolean primitiveFrom = isPrimitive(from);
+        boolean primitiveTo = isPrimitive(to);
+        if (primitiveFrom && primitiveTo) {
+            adapter.cast(from, to);
+        } else if (primitiveFrom) {
+            Type boxedType = getBoxedType(from);
+            adapter.invokestatic(boxedType.getInternalName(), "valueOf",
+                    Type.getMethodDescriptor(boxedType, from), false);
+        } else if (primitiveTo) {
+            Type primitiveType = getUnboxedType(from);
+            if (primitiveType == null) {
+                primitiveType = to;
+                adapter.checkcast(getBoxedType(to));
+            }
+            adapter.invokevirtual(getBoxedType(primitiveType).getInternalName(),
+                    primitiveType.getClassName() + "Value", Type.getMethodDescriptor(primitiveType), false);
+            if (!primitiveType.equals(to)) {
+                adapter.cast(primitiveType, to);
+            }
+        } else if (!to.getDescriptor().equals("Ljava/lang/Object;")) {
+            adapter.checkcast(to);
+        }
+    }
+
+    private static boolean isPrimitive(Type type) {
+        return type.getSort() < Type.ARRAY;
+    }
+
+    private static Type getBoxedType(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return Type.getObjectType("java/lang/Boolean");
+            case Type.CHAR:
+                return Type.getObjectType("java/lang/Character");
+            case Type.BYTE:
+                return Type.getObjectType("java/lang/Byte");
+            case Type.SHORT:
+                return Type.getObjectType("java/lang/Short");
+            case Type.INT:
+                return Type.getObjectType("java/lang/Integer");
+            case Type.FLOAT:
+                return Type.getObjectType("java/lang/Float");
+            case Type.LONG:
+                return Type.getObjectType("java/lang/Long");
+            default:
+                return Type.getObjectType("java/lang/Double");
+        }
+    }
+
+    private static Type getUnboxedType(Type type) {
+        switch (type.getDescriptor()) {
+            case "Ljava/lang/Boolean;":
+                return Type.BOOLEAN_TYPE;
+            case "Ljava/lang/Character;":
+                return Type.CHAR_TYPE;
+            case "Ljava/lang/Byte;":
+                return Type.BYTE_TYPE;
+            case "Ljava/lang/Short;":
+                return Type.SHORT_TYPE;
+            case "Ljava/lang/Integer;":
+                return Type.INT_TYPE;
+            case "Ljava/lang/Float;":
+                return Type.FLOAT_TYPE;
+            case "Ljava/lang/Long;":
+                return Type.LONG_TYPE;
+            case "Ljava/lang/Double;":
+                return Type.DOUBLE_TYPE;
+            default:
+                return null;
+        }
+    }
+
+    private static String getFieldName(int index) {
+        return "arg$" + (index + 1);
+    }
+
+    private static Type[] prepend(Type type, Type[] types) {
+        List<Type> list = new ArrayList<>(types.length + 1);
+        list.add(type);
+        for (Type type1 : types) {
+            list.add(type1);
+        }
+        return list.toArray(new Type[list.size()]);
+    }
+
+    private static final class Lambda {
+
+        final String className;
+        final String samName;
+        final Type interfaceType;
+        final Type[] capturedTypes;
+        final Type samType;
+        final Type instantiatedType;
+        final String accessorName;
+        final Type accessorType;
+
+        Lambda(String className, String samName, Type interfaceType, Type[] capturedTypes, Type samType,
+                Type instantiatedType, String accessorName, Type accessorType) {
+            this.className = className;
+            this.samName = samName;
+            this.interfaceType = interfaceType;
+            this.capturedTypes = capturedTypes;
+            this.samType = samType;
+            this.instantiatedType = instantiatedType;
+            this.accessorName = accessorName;
+            this.accessorType = accessorType;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.RET;
+
+final class LivenessAnalyzer {
+
+    private final Map<AbstractInsnNode, BitSet> liveLocals = new HashMap<>();
+
+    LivenessAnalyzer(ControlFlowGraph graph) {
+        AbstractInsnNode[] nodes = graph.nodes;
+        int n = nodes.length;
+
+        BitSet[] liveIn = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            liveIn[i] = new BitSet();
+        }
+
+        boolean changed;
+        do {
+            changed = false;
+            for (int i = n - 1; i >= 0; i--) {
+                BitSet live = new BitSet();
+                union(live, liveIn, graph.successors[i]);
+                union(live, liveIn, graph.handlers[i]);
+                AbstractInsnNode node = nodes[i];
+                int opcode = node.getOpcode();
+                if (node instanceof VarInsnNode) {
+                    int var = ((VarInsnNode) node).var;
+                    if (opcode >= ISTORE && opcode <= ASTORE) {
+                        live.clear(var);
+                    } else if (opcode >= ILOAD && opcode <= ALOAD || opcode == RET) {
+                        live.set(var);
+                    }
+                } else if (node instanceof IincInsnNode) {
+                    live.set(((IincInsnNode) node).var);
+                }
+                if (!live.equals(liveIn[i])) {
+                    liveIn[i] = live;
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        for (int i = 0; i < n; i++) {
+            liveLocals.put(nodes[i], liveIn[i]);
+        }
+    }
+
+    boolean isLive(AbstractInsnNode node, int var) {
+        return liveLocals.get(node).get(var);
+    }
+
+    private static void union(BitSet live, BitSet[] liveIn, BitSet indices) {
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+            live.or(liveIn[i]);
+        }
+    }
+}
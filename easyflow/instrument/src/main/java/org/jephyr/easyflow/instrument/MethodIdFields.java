@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.PUTSTATIC;
+
+final class MethodIdFields {
+
+    private static final String FIELD_NAME_PREFIX = "easyflow$methodId$";
+    private static final Handle BOOTSTRAP_HANDLE =
+            new Handle(H_INVOKESTATIC, "org/jephyr/continuation/easyflow/ContinuationImpl", "bootstrapMethodId",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+                            "Ljava/lang/String;Ljava/lang/String;)Ljava/lang/invoke/CallSite;");
+
+    private final Map<MethodRef, String> fieldNames = new LinkedHashMap<>();
+    private final String owner;
+    private final boolean indy;
+
+    MethodIdFields(String owner) {
+        this(owner, false);
+    }
+
+    MethodIdFields(String owner, boolean indy) {
+        this.owner = owner;
+        this.indy = indy;
+    }
+
+    AbstractInsnNode newGetFieldNode(String name, String desc) {
+        if (indy) {
+            return new InvokeDynamicInsnNode("methodId", "()I", BOOTSTRAP_HANDLE, name, desc);
+        }
+        MethodRef ref = new MethodRef(name, desc);
+        String fieldName = fieldNames.get(ref);
+        if (fieldName == null) {
+            fieldName = FIELD_NAME_PREFIX + fieldNames.size();
+            fieldNames.put(ref, fieldName);
+        }
+        return new FieldInsnNode(GETSTATIC, owner, fieldName, "I");
+    }
+
+    boolean isEmpty() {
+        return fieldNames.isEmpty();
+    }
+
+    void visitFields(ClassVisitor cv, boolean itf) {
+        int access = (itf ? ACC_PUBLIC : ACC_PRIVATE) | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC;
+        for (String fieldName : fieldNames.values()) {
+            cv.visitField(access, fieldName, "I", null, null).visitEnd();
+        }
+    }
+
+    InsnList newInitializerInsns() {
+        InsnList insns = new InsnList();
+        for (Map.Entry<MethodRef, String> entry : fieldNames.entrySet()) {
+            MethodRef ref = entry.getKey();
+            insns.add(new LdcInsnNode(ref.getName()));
+            insns.add(new LdcInsnNode(ref.getDesc()));
+            insns.add(new MethodInsnNode(INVOKESTATIC, "org/jephyr/continuation/easyflow/ContinuationImpl",
+                    "getMethodId", "(Ljava/lang/String;Ljava/lang/String;)I", false));
+            insns.add(new FieldInsnNode(PUTSTATIC, owner, entry.getValue(), "I"));
+        }
+        return insns;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.F_NEW;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.MONITORENTER;
+import static org.objectweb.asm.Opcodes.MONITOREXIT;
+import static org.objectweb.asm.Opcodes.RETURN;
+
+final class MonitorMethodAdapter extends MethodNode {
+
+    private static final String MONITORS = "org/jephyr/integration/openjdk/lang/Monitors";
+    private static final Object[] EMPTY_OBJECTS = {};
+
+    private final String owner;
+    private final MethodVisitor mv;
+
+    MonitorMethodAdapter(String owner, int access, String name, String desc, String signature, String[] exceptions,
+            MethodVisitor mv) {
+        super(ASM5, access, name, desc, signature, exceptions);
+        this.owner = owner;
+        this.mv = mv;
+    }
+
+    @Override
+    public void visitEnd() {
+        replaceMonitorInsns();
+        if ((access & ACC_SYNCHRONIZED) != 0 && instructions.size() > 0) {
+            addMonitor();
+        }
+        accept(mv);
+    }
+
+    private void replaceMonitorInsns() {
+        AbstractInsnNode next = instructions.getFirst();
+        while (next != null) {
+            AbstractInsnNode insn = next;
+            next = next.getNext();
+            int opcode = insn.getOpcode();
+            if (opcode == MONITORENTER) {
+                instructions.set(insn, newInvokeNode("enter"));
+            } else if (opcode == MONITOREXIT) {
+                instructions.set(insn, newInvokeNode("exit"));
+            } else if (opcode == INVOKEVIRTUAL || opcode == INVOKEINTERFACE) {
+                MethodInsnNode invokeNode = (MethodInsnNode) insn;
+                if (isObjectMonitorMethod(invokeNode.name, invokeNode.desc)) {
+                    instructions.set(insn, new MethodInsnNode(INVOKESTATIC, MONITORS, invokeNode.name,
+                            "(Ljava/lang/Object;" + invokeNode.desc.substring(1), false));
+                }
+            }
+        }
+    }
+
+    static boolean isObjectMonitorMethod(String name, String desc) {
+        switch (name) {
+            case "wait":
+                return desc.equals("()V") || desc.equals("(J)V") || desc.equals("(JI)V");
+            case "notify":
+            case "notifyAll":
+                return desc.equals("()V");
+            default:
+                return false;
+        }
+    }
+
+    private void addMonitor() {
+        LabelNode startLabel = new LabelNode();
+        LabelNode endLabel = new LabelNode();
+        LabelNode handlerLabel = new LabelNode();
+
+        InsnList insns = new InsnList();
+        insns.add(newLoadMonitorNode());
+        insns.add(newInvokeNode("enter"));
+        insns.add(startLabel);
+        instructions.insert(insns);
+
+        AbstractInsnNode next = instructions.getFirst();
+        while (next != null) {
+            AbstractInsnNode insn = next;
+            next = next.getNext();
+            int opcode = insn.getOpcode();
+            if (opcode >= IRETURN && opcode <= RETURN) {
+                instructions.insertBefore(insn, newLoadMonitorNode());
+                instructions.insertBefore(insn, newInvokeNode("exit"));
+            }
+        }
+
+        Object[] locals = (access & ACC_STATIC) == 0 ? new Object[] { owner } : EMPTY_OBJECTS;
+        instructions.add(endLabel);
+        instructions.add(handlerLabel);
+        instructions.add(new FrameNode(F_NEW, locals.length, locals, 1, new Object[] { "java/lang/Throwable" }));
+        instructions.add(newLoadMonitorNode());
+        instructions.add(newInvokeNode("exit"));
+        instructions.add(new InsnNode(ATHROW));
+        tryCatchBlocks.add(new TryCatchBlockNode(startLabel, endLabel, handlerLabel, null));
+
+        maxStack = Math.max(maxStack + 1, 2);
+    }
+
+    private AbstractInsnNode newLoadMonitorNode() {
+        if ((access & ACC_STATIC) == 0) {
+            return new VarInsnNode(ALOAD, 0);
+        }
+        return new LdcInsnNode(Type.getObjectType(owner));
+    }
+
+    private static MethodInsnNode newInvokeNode(String name) {
+        return new MethodInsnNode(INVOKESTATIC, MONITORS, name, "(Ljava/lang/Object;)V", false);
+    }
+}
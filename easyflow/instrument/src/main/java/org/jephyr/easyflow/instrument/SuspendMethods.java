@@ -0,0 +1,69 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+
+final class SuspendMethods {
+
+    private static final String METHOD_NAME_PREFIX = "easyflow$suspend$";
+
+    private final Collection<MethodNode> methods = new ArrayList<>();
+    private final String owner;
+    private final boolean itf;
+
+    SuspendMethods(String owner, boolean itf) {
+        this.owner = owner;
+        this.itf = itf;
+    }
+
+    MethodInsnNode newInvokeNode(String desc, InsnList instructions, int maxStack, int maxLocals) {
+        String name = METHOD_NAME_PREFIX + methods.size();
+        MethodNode node = new MethodNode(ASM5, ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, name, desc, null, null);
+        node.instructions = instructions;
+        node.maxStack = maxStack;
+        node.maxLocals = maxLocals;
+        methods.add(node);
+        return new MethodInsnNode(INVOKESTATIC, owner, name, desc, itf);
+    }
+
+    void visitMethods(ClassVisitor cv) {
+        for (MethodNode node : methods) {
+            node.accept(cv);
+        }
+    }
+}
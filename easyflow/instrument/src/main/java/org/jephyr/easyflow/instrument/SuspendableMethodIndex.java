@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+public final class SuspendableMethodIndex {
+
+    static final int MAGIC = 0x45464d49;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    private final LongBuffer table;
+    private final int mask;
+
+    private SuspendableMethodIndex(LongBuffer table, int capacity) {
+        this.table = table;
+        mask = capacity - 1;
+    }
+
+    public static SuspendableMethodIndex load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Invalid index file " + path);
+            }
+            ByteBuffer buffer = channel.map(READ_ONLY, 0, size);
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            int capacity = buffer.getInt();
+            buffer.getInt();
+            if (magic != MAGIC || version != VERSION || capacity <= 0 || Integer.bitCount(capacity) != 1 ||
+                    (size - HEADER_SIZE) / 8 < capacity) {
+                throw new IOException("Invalid index file " + path);
+            }
+            return new SuspendableMethodIndex(buffer.slice().asLongBuffer(), capacity);
+        }
+    }
+
+    public boolean contains(String className, String name, String desc) {
+        long hash = hash(className, name, desc);
+        int index = (int) hash & mask;
+        while (true) {
+            long value = table.get(index);
+            if (value == hash) {
+                return true;
+            }
+            if (value == 0L) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    static long hash(String className, String name, String desc) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, className);
+        hash = (hash ^ '.') * 0x100000001b3L;
+        hash = hash(hash, name);
+        hash = hash(hash, desc);
+        return hash == 0L ? 1L : hash;
+    }
+
+    private static long hash(long hash, String s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.jephyr.easyflow.instrument.SuspendableMethodIndex.MAGIC;
+import static org.jephyr.easyflow.instrument.SuspendableMethodIndex.VERSION;
+import static org.jephyr.easyflow.instrument.SuspendableMethodIndex.hash;
+
+public final class SuspendableMethodIndexWriter {
+
+    private final Set<Long> hashes = new HashSet<>();
+
+    public void add(String className, String name, String desc) {
+        hashes.add(hash(className, name, desc));
+    }
+
+    public void write(OutputStream out) throws IOException {
+        int capacity = 2;
+        while (capacity < hashes.size() * 2) {
+            capacity <<= 1;
+        }
+
+        long[] table = new long[capacity];
+        int mask = capacity - 1;
+        for (long hash : hashes) {
+            int index = (int) hash & mask;
+            while (table[index] != 0L) {
+                index = (index + 1) & mask;
+            }
+            table[index] = hash;
+        }
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeInt(VERSION);
+        dataOut.writeInt(capacity);
+        dataOut.writeInt(hashes.size());
+        for (long value : table) {
+            dataOut.writeLong(value);
+        }
+        dataOut.flush();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.function.Predicate;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.Type;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public final class CallGraphAnalyzerTest {
+
+    static class Unknown {
+
+        static void m() {
+        }
+    }
+
+    interface I {
+
+        void m();
+    }
+
+    static class Leaf implements I {
+
+        @Override
+        public void m() {
+            Math.abs(0);
+        }
+    }
+
+    static class Suspending implements I {
+
+        @Override
+        public void m() {
+            Unknown.m();
+        }
+    }
+
+    static class Caller {
+
+        void library() {
+            Math.abs(0);
+        }
+
+        void unknown() {
+            Unknown.m();
+        }
+
+        void virtual(I i) {
+            i.m();
+        }
+
+        void leaf(Leaf leaf) {
+            leaf.m();
+        }
+
+        void lambda() {
+            Runnable r = () -> Unknown.m();
+            r.run();
+        }
+
+        void runnable(Runnable r) {
+            r.run();
+        }
+    }
+
+    interface F {
+
+        void f();
+    }
+
+    interface G {
+
+        void g();
+    }
+
+    static class SuspendingF implements F {
+
+        @Override
+        public void f() {
+            Unknown.m();
+        }
+    }
+
+    static class References {
+
+        static F toF(G g) {
+            return g::g;
+        }
+
+        static G toG(F f) {
+            return f::f;
+        }
+    }
+
+    static class Caller1 {
+
+        void call(F f) {
+            f.f();
+        }
+    }
+
+    static class Caller2 {
+
+        void call(G g) {
+            g.g();
+        }
+    }
+
+    @Test
+    public void testLibraryCall() throws Exception {
+        Predicate<MethodRef> predicate = analyze(Caller.class).getMethodRefPredicate(getName(Caller.class));
+        assertFalse(predicate.test(getMethodRef(Caller.class.getDeclaredMethod("library"))));
+    }
+
+    @Test
+    public void testUnknownCall() throws Exception {
+        Predicate<MethodRef> predicate = analyze(Caller.class).getMethodRefPredicate(getName(Caller.class));
+        assertTrue(predicate.test(getMethodRef(Caller.class.getDeclaredMethod("unknown"))));
+    }
+
+    @Test
+    public void testVirtualCall() throws Exception {
+        CallGraphAnalyzer analyzer = analyze(Caller.class, I.class, Leaf.class, Unknown.class);
+        Predicate<MethodRef> predicate = analyzer.getMethodRefPredicate(getName(Caller.class));
+        assertFalse(predicate.test(getMethodRef(Caller.class.getDeclaredMethod("virtual", I.class))));
+        assertFalse(predicate.test(getMethodRef(Caller.class.getDeclaredMethod("leaf", Leaf.class))));
+    }
+
+    @Test
+    public void testVirtualCallSuspendingImplementation() throws Exception {
+        CallGraphAnalyzer analyzer = analyze(Caller.class, I.class, Leaf.class, Suspending.class);
+        Predicate<MethodRef> predicate = analyzer.getMethodRefPredicate(getName(Caller.class));
+        assertTrue(predicate.test(getMethodRef(Caller.class.getDeclaredMethod("virtual", I.class))));
+        assertFalse(predicate.test(getMethodRef(Caller.class.getDeclaredMethod("leaf", Leaf.class))));
+    }
+
+    @Test
+    public void testLambda() throws Exception {
+        CallGraphAnalyzer analyzer = analyze(Caller.class, I.class);
+        Predicate<MethodRef> predicate = analyzer.getMethodRefPredicate(getName(Caller.class));
+        assertTrue(predicate.test(getMethodRef(Caller.class.getDeclaredMethod("lambda"))));
+        assertTrue(predicate.test(getMethodRef(Caller.class.getDeclaredMethod("runnable", Runnable.class))));
+    }
+
+    @Test
+    public void testMutuallyRecursiveLambdas() throws Exception {
+        CallGraphAnalyzer analyzer = analyze(Caller1.class, Caller2.class, References.class, F.class, G.class,
+                SuspendingF.class);
+        assertTrue(analyzer.getMethodRefPredicate(getName(Caller1.class))
+                .test(getMethodRef(Caller1.class.getDeclaredMethod("call", F.class))));
+        assertTrue(analyzer.getMethodRefPredicate(getName(Caller2.class))
+                .test(getMethodRef(Caller2.class.getDeclaredMethod("call", G.class))));
+    }
+
+    @Test
+    public void testExcludedMethod() throws Exception {
+        CallGraphAnalyzer analyzer = new CallGraphAnalyzer();
+        analyzer.addClass(getBytes(Caller.class));
+        analyzer.addClass(getBytes(I.class));
+        analyzer.addClass(getBytes(Suspending.class));
+        analyzer.analyze((className, ref) -> !className.equals(getName(Suspending.class)));
+        Predicate<MethodRef> predicate = analyzer.getMethodRefPredicate(getName(Caller.class));
+        assertFalse(predicate.test(getMethodRef(Caller.class.getDeclaredMethod("virtual", I.class))));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNonExistentMethod() throws Exception {
+        Predicate<MethodRef> predicate = analyze(Caller.class).getMethodRefPredicate(getName(Caller.class));
+        predicate.test(new MethodRef("nonExistentMethod", "()V"));
+    }
+
+    private static CallGraphAnalyzer analyze(Class<?>... classes) throws IOException {
+        CallGraphAnalyzer analyzer = new CallGraphAnalyzer();
+        for (Class<?> cls : classes) {
+            analyzer.addClass(getBytes(cls));
+        }
+        analyzer.analyze((className, ref) -> true);
+        return analyzer;
+    }
+
+    private static String getName(Class<?> cls) {
+        return Type.getInternalName(cls);
+    }
+
+    private static byte[] getBytes(Class<?> cls) throws IOException {
+        try (InputStream in = CallGraphAnalyzerTest.class.getClassLoader()
+                .getResourceAsStream(getName(cls) + ".class")) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static MethodRef getMethodRef(Method method) {
+        return new MethodRef(method.getName(), Type.getMethodDescriptor(method));
+    }
+}
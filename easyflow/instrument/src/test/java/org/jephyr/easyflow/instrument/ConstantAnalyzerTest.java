@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.Collections;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.testng.annotations.Test;
+
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.ICONST_1;
+import static org.objectweb.asm.Opcodes.ICONST_2;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.LDC;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public final class ConstantAnalyzerTest {
+
+    @Test
+    public void testIsThis() throws Exception {
+        InsnList instructions = new InsnList();
+        MethodInsnNode call = newCall();
+        instructions.add(call);
+        instructions.add(new InsnNode(RETURN));
+        ConstantAnalyzer constants = analyze(instructions, 0, "(I)V", 2);
+        assertTrue(constants.isThis(call, 0));
+        assertFalse(constants.isThis(call, 1));
+        assertNull(constants.getConstant(call, 1));
+    }
+
+    @Test
+    public void testIsThisReassigned() throws Exception {
+        InsnList instructions = new InsnList();
+        instructions.add(new VarInsnNode(ALOAD, 1));
+        instructions.add(new VarInsnNode(ASTORE, 0));
+        MethodInsnNode call = newCall();
+        instructions.add(call);
+        instructions.add(new InsnNode(RETURN));
+        ConstantAnalyzer constants = analyze(instructions, 0, "(Ljava/lang/Object;)V", 2);
+        assertFalse(constants.isThis(call, 0));
+    }
+
+    @Test
+    public void testGetConstant() throws Exception {
+        InsnList instructions = new InsnList();
+        instructions.add(new LdcInsnNode("c"));
+        instructions.add(new VarInsnNode(ASTORE, 0));
+        MethodInsnNode call = newCall();
+        instructions.add(call);
+        instructions.add(new InsnNode(RETURN));
+        ConstantAnalyzer constants = analyze(instructions, ACC_STATIC, "()V", 1);
+        AbstractInsnNode constant = constants.getConstant(call, 0);
+        assertEquals(constant.getOpcode(), LDC);
+        assertEquals(((LdcInsnNode) constant).cst, "c");
+    }
+
+    @Test
+    public void testGetConstantMergeSame() throws Exception {
+        InsnList instructions = newBranches(ICONST_1, ICONST_1);
+        MethodInsnNode call = (MethodInsnNode) instructions.getLast().getPrevious();
+        ConstantAnalyzer constants = analyze(instructions, ACC_STATIC, "(I)V", 2);
+        assertEquals(constants.getConstant(call, 1).getOpcode(), ICONST_1);
+    }
+
+    @Test
+    public void testGetConstantMergeDifferent() throws Exception {
+        InsnList instructions = newBranches(ICONST_1, ICONST_2);
+        MethodInsnNode call = (MethodInsnNode) instructions.getLast().getPrevious();
+        ConstantAnalyzer constants = analyze(instructions, ACC_STATIC, "(I)V", 2);
+        assertNull(constants.getConstant(call, 1));
+    }
+
+    private static InsnList newBranches(int opcode1, int opcode2) {
+        InsnList instructions = new InsnList();
+        LabelNode elseLabel = new LabelNode();
+        LabelNode endLabel = new LabelNode();
+        instructions.add(new VarInsnNode(ILOAD, 0));
+        instructions.add(new JumpInsnNode(IFEQ, elseLabel));
+        instructions.add(new InsnNode(opcode1));
+        instructions.add(new VarInsnNode(ISTORE, 1));
+        instructions.add(new JumpInsnNode(GOTO, endLabel));
+        instructions.add(elseLabel);
+        instructions.add(new InsnNode(opcode2));
+        instructions.add(new VarInsnNode(ISTORE, 1));
+        instructions.add(endLabel);
+        instructions.add(newCall());
+        instructions.add(new InsnNode(RETURN));
+        return instructions;
+    }
+
+    private static ConstantAnalyzer analyze(InsnList instructions, int access, String desc, int maxLocals) {
+        return new ConstantAnalyzer(new ControlFlowGraph(instructions, Collections.emptyList()), access, desc,
+                maxLocals);
+    }
+
+    private static MethodInsnNode newCall() {
+        return new MethodInsnNode(INVOKESTATIC, "C", "m", "()V", false);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.testng.annotations.Test;
+
+import static java.util.Collections.singletonList;
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class EasyFlowClassAdapterTest {
+
+    private static final String MONITORS = "org/jephyr/integration/openjdk/lang/Monitors";
+
+    static class Counter {
+
+        private int value;
+
+        synchronized int get() {
+            return value;
+        }
+
+        synchronized void set(int value) {
+            this.value = value;
+        }
+    }
+
+    static class Latch {
+
+        private boolean open;
+
+        synchronized void await() throws InterruptedException {
+            while (!open) {
+                wait();
+            }
+        }
+
+        synchronized void open() {
+            open = true;
+            notifyAll();
+        }
+    }
+
+    static class Trusted {
+
+        static void run() {
+            helper();
+            Untrusted.work();
+        }
+
+        void call() {
+            apply();
+        }
+
+        void apply() {
+        }
+
+        static void helper() {
+        }
+    }
+
+    static class Untrusted {
+
+        static void work() {
+        }
+    }
+
+    @Test
+    public void testSuspendableMonitors() throws Exception {
+        ClassNode node = transform(Counter.class, "set");
+
+        MethodNode get = getMethod(node, "get");
+        assertEquals(get.access & ACC_SYNCHRONIZED, 0);
+        assertNotNull(findInvokeNode(get, "enter"));
+        assertNotNull(findInvokeNode(get, "exit"));
+
+        MethodNode set = getMethod(node, "set");
+        assertEquals(set.access & ACC_SYNCHRONIZED, 0);
+        assertNotNull(findInvokeNode(set, "enter"));
+        assertNotNull(findInvokeNode(set, "exit"));
+    }
+
+    @Test
+    public void testSuspendableMonitorMethods() throws Exception {
+        ClassNode node = transform(Latch.class, "open");
+
+        MethodNode await = getMethod(node, "await");
+        assertEquals(findInvokeNode(await, "wait").desc, "(Ljava/lang/Object;)V");
+        assertNull(findInvokeNode(await, "notifyAll"));
+
+        MethodNode open = getMethod(node, "open");
+        assertEquals(findInvokeNode(open, "notifyAll").desc, "(Ljava/lang/Object;)V");
+        assertNull(findInvokeNode(open, "wait"));
+    }
+
+    @Test
+    public void testTrusted() throws Exception {
+        String trustedName = Type.getInternalName(Trusted.class);
+        ClassNode node = new ClassNode();
+        new ClassReader(getBytes(Trusted.class)).accept(new EasyFlowClassAdapter(t -> t.getName().equals("run"), 0,
+                trustedName::equals, node), EXPAND_FRAMES);
+
+        MethodNode run = getMethod(node, "run");
+        List<Type> starting = new ArrayList<>();
+        for (AbstractInsnNode next = run.instructions.getFirst(); next != null; next = next.getNext()) {
+            if (next.getOpcode() == INVOKEVIRTUAL) {
+                MethodInsnNode invokeNode = (MethodInsnNode) next;
+                assertFalse(invokeNode.name.equals("invocationStarted"));
+                assertFalse(invokeNode.name.equals("invocationEnded"));
+                if (invokeNode.name.equals("staticInvocationStarting")) {
+                    starting.add((Type) ((LdcInsnNode) next.getPrevious().getPrevious()).cst);
+                }
+            }
+        }
+        assertEquals(starting, singletonList(Type.getType(Untrusted.class)));
+    }
+
+    @Test
+    public void testTrustedInstanceMethod() throws Exception {
+        String trustedName = Type.getInternalName(Trusted.class);
+        ClassNode node = new ClassNode();
+        new ClassReader(getBytes(Trusted.class)).accept(new EasyFlowClassAdapter(t -> t.getName().equals("call"), 0,
+                trustedName::equals, node), EXPAND_FRAMES);
+
+        MethodNode call = getMethod(node, "call");
+        List<String> names = new ArrayList<>();
+        for (AbstractInsnNode next = call.instructions.getFirst(); next != null; next = next.getNext()) {
+            if (next.getOpcode() == INVOKEVIRTUAL) {
+                names.add(((MethodInsnNode) next).name);
+            }
+        }
+        assertTrue(names.contains("invocationStarted"));
+        assertTrue(names.contains("invocationEnded"));
+        assertTrue(names.contains("invocationStarting"));
+    }
+
+    @Test
+    public void testChanged() throws Exception {
+        assertTrue(isChanged(Trusted.class, 0));
+        assertTrue(isChanged(Counter.class, EasyFlowClassAdapter.SUSPENDABLE_MONITORS));
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        assertFalse(isChanged(Untrusted.class, 0));
+        assertFalse(isChanged(Untrusted.class, EasyFlowClassAdapter.SUSPENDABLE_MONITORS));
+    }
+
+    private static boolean isChanged(Class<?> cls, int flags) throws IOException {
+        EasyFlowClassAdapter adapter = new EasyFlowClassAdapter(t -> true, flags, new ClassNode());
+        new ClassReader(getBytes(cls)).accept(adapter, EXPAND_FRAMES);
+        return adapter.isChanged();
+    }
+
+    private static ClassNode transform(Class<?> cls, String selected) throws IOException {
+        ClassNode node = new ClassNode();
+        new ClassReader(getBytes(cls)).accept(new EasyFlowClassAdapter(t -> t.getName().equals(selected),
+                EasyFlowClassAdapter.SUSPENDABLE_MONITORS, node), EXPAND_FRAMES);
+        return node;
+    }
+
+    private static MethodNode getMethod(ClassNode node, String name) {
+        for (MethodNode method : node.methods) {
+            if (method.name.equals(name)) {
+                return method;
+            }
+        }
+        throw new AssertionError("Method " + name + " not found");
+    }
+
+    private static MethodInsnNode findInvokeNode(MethodNode method, String name) {
+        for (AbstractInsnNode next = method.instructions.getFirst(); next != null; next = next.getNext()) {
+            if (next.getOpcode() == INVOKESTATIC) {
+                MethodInsnNode invokeNode = (MethodInsnNode) next;
+                if (invokeNode.owner.equals(MONITORS) && invokeNode.name.equals(name)) {
+                    return invokeNode;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static byte[] getBytes(Class<?> cls) throws IOException {
+        try (InputStream in = EasyFlowClassAdapterTest.class.getClassLoader()
+                .getResourceAsStream(Type.getInternalName(cls) + ".class")) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.F_NEW;
+import static org.objectweb.asm.Opcodes.IFNULL;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INTEGER;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class FastPathMethodAdapterTest {
+
+    private static final Object[] EMPTY_OBJECTS = new Object[0];
+
+    private ClassNode cv;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        cv = new ClassNode();
+    }
+
+    @Test
+    public void testVisitEndNoInvocations() throws Exception {
+        MethodVisitor adapter = newAdapter("(I)I");
+        adapter.visitCode();
+        adapter.visitVarInsn(ILOAD, 1);
+        adapter.visitInsn(IRETURN);
+        adapter.visitMaxs(1, 2);
+        adapter.visitEnd();
+
+        assertEquals(cv.methods.size(), 1);
+        MethodNode node = cv.methods.get(0);
+        assertEquals(node.name, "m");
+        assertEquals(node.instructions.size(), 2);
+    }
+
+    @Test
+    public void testVisitEndInvocation() throws Exception {
+        MethodVisitor adapter = newAdapter("(I)I");
+        adapter.visitCode();
+        adapter.visitFrame(F_NEW, 2, new Object[] {"C", INTEGER}, 0, EMPTY_OBJECTS);
+        adapter.visitMethodInsn(INVOKESTATIC, "C", "n", "()V", false);
+        adapter.visitVarInsn(ILOAD, 1);
+        adapter.visitInsn(IRETURN);
+        adapter.visitMaxs(1, 2);
+        adapter.visitEnd();
+
+        assertEquals(cv.methods.size(), 2);
+
+        MethodNode copy = cv.methods.get(1);
+        assertEquals(copy.name, "easyflow$instrumented$m");
+        assertEquals(copy.access, ACC_PRIVATE | ACC_SYNTHETIC);
+
+        MethodNode node = cv.methods.get(0);
+        assertEquals(node.name, "m");
+        assertEquals(node.access, ACC_PUBLIC);
+        AbstractInsnNode next = node.instructions.getFirst();
+        assertEquals(((MethodInsnNode) next).name, "currentImpl");
+        next = next.getNext();
+        assertEquals(next.getOpcode(), IFNULL);
+        JumpInsnNode jumpNode = (JumpInsnNode) next;
+        next = next.getNext();
+        assertEquals(((VarInsnNode) next).getOpcode(), ALOAD);
+        next = next.getNext();
+        assertEquals(((VarInsnNode) next).getOpcode(), ILOAD);
+        next = next.getNext();
+        MethodInsnNode invokeNode = (MethodInsnNode) next;
+        assertEquals(invokeNode.getOpcode(), INVOKESPECIAL);
+        assertEquals(invokeNode.name, "easyflow$instrumented$m");
+        next = next.getNext();
+        assertEquals(next.getOpcode(), IRETURN);
+        next = next.getNext();
+        assertTrue(next == jumpNode.label);
+        next = next.getNext();
+        assertTrue(next instanceof FrameNode);
+        assertTrue(next.getNext() == null || !(next.getNext() instanceof FrameNode));
+        assertTrue(node.maxStack >= 3);
+    }
+
+    @Test
+    public void testVisitEndInvocationStatic() throws Exception {
+        MethodVisitor adapter = new FastPathMethodAdapter("C", false, ACC_PUBLIC | ACC_STATIC, "m",
+                "()V", null, null, null, new MethodIdFields("C"), null, cv);
+        adapter.visitCode();
+        adapter.visitMethodInsn(INVOKESTATIC, "C", "n", "()V", false);
+        adapter.visitInsn(RETURN);
+        adapter.visitMaxs(0, 0);
+        adapter.visitEnd();
+
+        MethodNode node = cv.methods.get(0);
+        AbstractInsnNode next = node.instructions.getFirst().getNext().getNext();
+        assertEquals(next.getOpcode(), INVOKESTATIC);
+        assertEquals(((MethodInsnNode) next).name, "easyflow$instrumented$m");
+        assertEquals(next.getNext().getOpcode(), RETURN);
+        FrameNode frameNode = (FrameNode) next.getNext().getNext().getNext();
+        assertEquals(frameNode.local.size(), 0);
+    }
+
+    private MethodVisitor newAdapter(String desc) {
+        return new FastPathMethodAdapter("C", false, ACC_PUBLIC, "m", desc, null, null, null, new MethodIdFields("C"),
+                null, cv);
+    }
+}
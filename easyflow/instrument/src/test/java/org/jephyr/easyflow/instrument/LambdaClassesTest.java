@@ -0,0 +1,94 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.Collection;
+
+import org.jephyr.easyflow.instrument.EasyFlowClassAdapter.ClassEntry;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.testng.annotations.Test;
+
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.V1_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class LambdaClassesTest {
+
+    private static final Handle METAFACTORY_HANDLE =
+            new Handle(H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+                            "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;" +
+                            "Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;");
+
+    @Test
+    public void testNewFactoryInvokeNode() throws Exception {
+        LambdaClasses lambdaClasses = new LambdaClasses("C", V1_8, t -> t.getName().startsWith("lambda$"));
+
+        MethodInsnNode node = lambdaClasses.newFactoryInvokeNode("run", "(Ljava/lang/String;)Ljava/lang/Runnable;",
+                METAFACTORY_HANDLE, newBsmArgs("C", "lambda$m$0", "(Ljava/lang/String;)V"));
+
+        assertEquals(node.getOpcode(), INVOKESTATIC);
+        assertEquals(node.owner, "C$easyflow$lambda$0");
+        assertEquals(node.desc, "(Ljava/lang/String;)Ljava/lang/Runnable;");
+
+        Collection<MethodNode> accessors = lambdaClasses.getAccessors();
+        assertEquals(accessors.size(), 1);
+        assertEquals(accessors.iterator().next().desc, "(Ljava/lang/String;)V");
+
+        Collection<ClassEntry> classEntries = lambdaClasses.newClassEntries(0, t -> false);
+        assertEquals(classEntries.size(), 1);
+        ClassEntry entry = classEntries.iterator().next();
+        assertEquals(entry.name, "C$easyflow$lambda$0");
+        ClassNode classNode = new ClassNode();
+        new ClassReader(entry.bytes).accept(classNode, 0);
+        assertEquals(classNode.interfaces.get(0), "java/lang/Runnable");
+        assertEquals(classNode.invisibleAnnotations.get(0).desc, EasyFlowClassAdapter.INSTRUMENTED_DESC);
+    }
+
+    @Test
+    public void testNewFactoryInvokeNodeNotApplicable() throws Exception {
+        LambdaClasses lambdaClasses = new LambdaClasses("C", V1_8, t -> t.getName().startsWith("lambda$"));
+
+        assertNull(lambdaClasses.newFactoryInvokeNode("run", "()Ljava/lang/Runnable;", METAFACTORY_HANDLE,
+                newBsmArgs("D", "lambda$m$0", "()V")));
+        assertNull(lambdaClasses.newFactoryInvokeNode("run", "()Ljava/lang/Runnable;", METAFACTORY_HANDLE,
+                newBsmArgs("C", "m", "()V")));
+        assertNull(lambdaClasses.newFactoryInvokeNode("run", "()Ljava/lang/Runnable;",
+                new Handle(H_INVOKESTATIC, "C", "bootstrap", "()V"), newBsmArgs("C", "lambda$m$0", "()V")));
+        assertEquals(lambdaClasses.getAccessors().size(), 0);
+    }
+
+    private static Object[] newBsmArgs(String owner, String name, String desc) {
+        return new Object[] { Type.getMethodType("()V"), new Handle(H_INVOKESTATIC, owner, name, desc),
+                Type.getMethodType("()V") };
+    }
+}
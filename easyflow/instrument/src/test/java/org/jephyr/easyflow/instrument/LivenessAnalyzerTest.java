@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.testng.annotations.Test;
+
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public final class LivenessAnalyzerTest {
+
+    @Test
+    public void testIsLiveUsedAfterCall() throws Exception {
+        InsnList instructions = new InsnList();
+        MethodInsnNode call = newCall();
+        instructions.add(call);
+        instructions.add(new VarInsnNode(ILOAD, 0));
+        instructions.add(new InsnNode(IRETURN));
+        LivenessAnalyzer liveness = new LivenessAnalyzer(new ControlFlowGraph(instructions, Collections.emptyList()));
+        assertTrue(liveness.isLive(call, 0));
+        assertFalse(liveness.isLive(call, 1));
+    }
+
+    @Test
+    public void testIsLiveOverwrittenAfterCall() throws Exception {
+        InsnList instructions = new InsnList();
+        instructions.add(new VarInsnNode(ALOAD, 0));
+        instructions.add(new InsnNode(POP));
+        MethodInsnNode call = newCall();
+        instructions.add(call);
+        instructions.add(new InsnNode(ICONST_0));
+        instructions.add(new VarInsnNode(ISTORE, 0));
+        instructions.add(new VarInsnNode(ILOAD, 0));
+        instructions.add(new InsnNode(IRETURN));
+        LivenessAnalyzer liveness = new LivenessAnalyzer(new ControlFlowGraph(instructions, Collections.emptyList()));
+        assertFalse(liveness.isLive(call, 0));
+    }
+
+    @Test
+    public void testIsLiveLoop() throws Exception {
+        InsnList instructions = new InsnList();
+        LabelNode loop = new LabelNode();
+        LabelNode exit = new LabelNode();
+        instructions.add(loop);
+        MethodInsnNode call = newCall();
+        instructions.add(call);
+        instructions.add(new VarInsnNode(ILOAD, 1));
+        instructions.add(new JumpInsnNode(IFEQ, exit));
+        instructions.add(new VarInsnNode(ALOAD, 0));
+        instructions.add(new InsnNode(POP));
+        instructions.add(new JumpInsnNode(GOTO, loop));
+        instructions.add(exit);
+        instructions.add(new InsnNode(RETURN));
+        LivenessAnalyzer liveness = new LivenessAnalyzer(new ControlFlowGraph(instructions, Collections.emptyList()));
+        assertTrue(liveness.isLive(call, 0));
+        assertTrue(liveness.isLive(call, 1));
+    }
+
+    @Test
+    public void testIsLiveExceptionHandler() throws Exception {
+        InsnList instructions = new InsnList();
+        LabelNode start = new LabelNode();
+        LabelNode end = new LabelNode();
+        LabelNode handler = new LabelNode();
+        instructions.add(start);
+        MethodInsnNode call = newCall();
+        instructions.add(call);
+        instructions.add(end);
+        instructions.add(new InsnNode(RETURN));
+        instructions.add(handler);
+        instructions.add(new InsnNode(POP));
+        instructions.add(new VarInsnNode(ALOAD, 0));
+        instructions.add(new InsnNode(ATHROW));
+        List<TryCatchBlockNode> tryCatchBlocks = new ArrayList<>();
+        tryCatchBlocks.add(new TryCatchBlockNode(start, end, handler, null));
+        LivenessAnalyzer liveness = new LivenessAnalyzer(new ControlFlowGraph(instructions, tryCatchBlocks));
+        assertTrue(liveness.isLive(call, 0));
+    }
+
+    @Test
+    public void testIsLiveStoreAfterCall() throws Exception {
+        InsnList instructions = new InsnList();
+        MethodInsnNode call = newCall();
+        instructions.add(call);
+        instructions.add(new InsnNode(ICONST_0));
+        instructions.add(new VarInsnNode(ASTORE, 0));
+        instructions.add(new VarInsnNode(ALOAD, 0));
+        instructions.add(new InsnNode(ARETURN));
+        LivenessAnalyzer liveness = new LivenessAnalyzer(new ControlFlowGraph(instructions, Collections.emptyList()));
+        assertFalse(liveness.isLive(call, 0));
+    }
+
+    private static MethodInsnNode newCall() {
+        return new MethodInsnNode(INVOKESTATIC, "C", "m", "()V", false);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+
+import org.apache.commons.io.IOUtils;
+import org.jephyr.continuation.UnsuspendableError;
+import org.jephyr.continuation.easyflow.EasyFlowContinuation;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.testng.annotations.Test;
+
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class MethodHandleInvocationTest {
+
+    private static final String PREFIX = MethodHandleInvocationTest.class.getName() + '$';
+
+    public static final class InvokeExactSample implements Runnable {
+
+        private static final MethodHandle STEP;
+
+        static {
+            try {
+                STEP = MethodHandles.lookup().findStatic(InvokeExactSample.class, "step",
+                        MethodType.methodType(void.class, StringBuilder.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final StringBuilder log;
+
+        public InvokeExactSample(StringBuilder log) {
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    STEP.invokeExact(log);
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        private static void step(StringBuilder log) {
+            log.append('a');
+            EasyFlowContinuation.suspend();
+            log.append('b');
+        }
+    }
+
+    public static final class InvokeSample implements Runnable {
+
+        private static final MethodHandle STEP;
+
+        static {
+            try {
+                STEP = MethodHandles.lookup().findVirtual(InvokeSample.class, "step",
+                        MethodType.methodType(int.class, int.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final StringBuilder log;
+
+        public InvokeSample(StringBuilder log) {
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            try {
+                log.append((long) STEP.invoke(this, (short) 1));
+                log.append((long) STEP.invoke(this, (short) 2));
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private int step(int value) {
+            log.append('a');
+            EasyFlowContinuation.suspend();
+            log.append('b');
+            return value * 10;
+        }
+    }
+
+    public static final class BoundSample implements Runnable {
+
+        private static final MethodHandle STEP;
+
+        static {
+            try {
+                STEP = MethodHandles.lookup().findVirtual(BoundSample.class, "step", MethodType.methodType(void.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final StringBuilder log;
+
+        public BoundSample(StringBuilder log) {
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            try {
+                STEP.bindTo(this).invokeExact();
+            } catch (Error | RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void step() {
+            log.append('a');
+            EasyFlowContinuation.suspend();
+            log.append('b');
+        }
+    }
+
+    @Test
+    public void testSuspendThroughInvokeExact() throws Exception {
+        StringBuilder log = new StringBuilder();
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(newSample(InvokeExactSample.class, log));
+
+        assertTrue(continuation.resume());
+        assertEquals(log.toString(), "a");
+        assertTrue(continuation.resume());
+        assertEquals(log.toString(), "aba");
+        assertFalse(continuation.resume());
+        assertEquals(log.toString(), "abab");
+    }
+
+    @Test
+    public void testSuspendThroughInvoke() throws Exception {
+        StringBuilder log = new StringBuilder();
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(newSample(InvokeSample.class, log));
+
+        assertTrue(continuation.resume());
+        assertEquals(log.toString(), "a");
+        assertTrue(continuation.resume());
+        assertEquals(log.toString(), "ab10a");
+        assertFalse(continuation.resume());
+        assertEquals(log.toString(), "ab10ab20");
+    }
+
+    @Test
+    public void testSuspendThroughBoundHandle() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            StringBuilder log = new StringBuilder();
+            EasyFlowContinuation continuation = EasyFlowContinuation.create(newSample(BoundSample.class, log));
+
+            try {
+                continuation.resume();
+                fail();
+            } catch (UnsuspendableError ignored) {
+            }
+            assertEquals(log.toString(), "a");
+        }
+    }
+
+    private static Runnable newSample(Class<?> cls, StringBuilder log) throws Exception {
+        Class<?> cls1 = Class.forName(cls.getName(), true, new InstrumentingClassLoader());
+        Constructor<?> constructor = cls1.getConstructor(StringBuilder.class);
+        return (Runnable) constructor.newInstance(log);
+    }
+
+    private static final class InstrumentingClassLoader extends ClassLoader {
+
+        InstrumentingClassLoader() {
+            super(MethodHandleInvocationTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(PREFIX)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> cls = findLoadedClass(name);
+                if (cls == null) {
+                    byte[] bytes = transform(name);
+                    cls = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(cls);
+                }
+                return cls;
+            }
+        }
+
+        private static byte[] transform(String name) throws ClassNotFoundException {
+            try (InputStream in = MethodHandleInvocationTest.class.getClassLoader()
+                    .getResourceAsStream(name.replace('.', '/') + ".class")) {
+                ClassWriter writer = new ClassWriter(0);
+                new ClassReader(IOUtils.toByteArray(in)).accept(new EasyFlowClassAdapter(t -> true, writer),
+                        EXPAND_FRAMES);
+                return writer.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.testng.annotations.Test;
+
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class MethodIdFieldsTest {
+
+    @Test
+    public void testNewGetFieldNode() throws Exception {
+        MethodIdFields fields = new MethodIdFields("C");
+
+        FieldInsnNode node1 = (FieldInsnNode) fields.newGetFieldNode("m", "()V");
+        FieldInsnNode node2 = (FieldInsnNode) fields.newGetFieldNode("n", "()V");
+        FieldInsnNode node3 = (FieldInsnNode) fields.newGetFieldNode("m", "()V");
+
+        assertEquals(node1.getOpcode(), GETSTATIC);
+        assertEquals(node1.owner, "C");
+        assertEquals(node1.name, node3.name);
+        assertFalse(node1.name.equals(node2.name));
+        assertFalse(fields.isEmpty());
+
+        ClassNode cv = new ClassNode();
+        fields.visitFields(cv, false);
+        assertEquals(cv.fields.size(), 2);
+    }
+
+    @Test
+    public void testNewGetFieldNodeIndy() throws Exception {
+        MethodIdFields fields = new MethodIdFields("C", true);
+
+        AbstractInsnNode node = fields.newGetFieldNode("m", "(I)V");
+
+        assertTrue(node instanceof InvokeDynamicInsnNode);
+        InvokeDynamicInsnNode indyNode = (InvokeDynamicInsnNode) node;
+        assertEquals(indyNode.desc, "()I");
+        assertEquals(indyNode.bsm.getOwner(), "org/jephyr/continuation/easyflow/ContinuationImpl");
+        assertEquals(indyNode.bsmArgs[0], "m");
+        assertEquals(indyNode.bsmArgs[1], "(I)V");
+        assertTrue(fields.isEmpty());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.testng.annotations.Test;
+
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNCHRONIZED;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.LCONST_0;
+import static org.objectweb.asm.Opcodes.MONITORENTER;
+import static org.objectweb.asm.Opcodes.MONITOREXIT;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MonitorMethodAdapterTest {
+
+    private static final String MONITORS = "org/jephyr/integration/openjdk/lang/Monitors";
+
+    @Test
+    public void testVisitEndMonitorInsns() throws Exception {
+        MethodNode node = new MethodNode(ASM5, ACC_PUBLIC, "m", "()V", null, null);
+        MethodVisitor adapter = new MonitorMethodAdapter("C", ACC_PUBLIC, "m", "()V", null, null, node);
+        adapter.visitCode();
+        adapter.visitVarInsn(ALOAD, 0);
+        adapter.visitInsn(MONITORENTER);
+        adapter.visitVarInsn(ALOAD, 0);
+        adapter.visitInsn(MONITOREXIT);
+        adapter.visitInsn(RETURN);
+        adapter.visitMaxs(1, 1);
+        adapter.visitEnd();
+
+        assertEquals(node.instructions.size(), 5);
+        assertInvokeNode(node.instructions.get(1), "enter");
+        assertInvokeNode(node.instructions.get(3), "exit");
+        assertTrue(node.tryCatchBlocks.isEmpty());
+    }
+
+    @Test
+    public void testVisitEndMonitorMethods() throws Exception {
+        MethodNode node = new MethodNode(ASM5, ACC_PUBLIC, "m", "()V", null, null);
+        MethodVisitor adapter = new MonitorMethodAdapter("C", ACC_PUBLIC, "m", "()V", null, null, node);
+        adapter.visitCode();
+        adapter.visitVarInsn(ALOAD, 0);
+        adapter.visitInsn(LCONST_0);
+        adapter.visitMethodInsn(INVOKEVIRTUAL, "C", "wait", "(J)V", false);
+        adapter.visitVarInsn(ALOAD, 0);
+        adapter.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Object", "notifyAll", "()V", false);
+        adapter.visitVarInsn(ALOAD, 0);
+        adapter.visitMethodInsn(INVOKEVIRTUAL, "C", "notify", "(I)V", false);
+        adapter.visitInsn(RETURN);
+        adapter.visitMaxs(3, 1);
+        adapter.visitEnd();
+
+        assertInvokeNode(node.instructions.get(2), "wait");
+        assertEquals(((MethodInsnNode) node.instructions.get(2)).desc, "(Ljava/lang/Object;J)V");
+        assertInvokeNode(node.instructions.get(4), "notifyAll");
+        assertEquals(((MethodInsnNode) node.instructions.get(4)).desc, "(Ljava/lang/Object;)V");
+        MethodInsnNode invokeNode = (MethodInsnNode) node.instructions.get(6);
+        assertEquals(invokeNode.getOpcode(), INVOKEVIRTUAL);
+        assertEquals(invokeNode.owner, "C");
+    }
+
+    @Test
+    public void testVisitEndSynchronized() throws Exception {
+        MethodNode node = new MethodNode(ASM5, ACC_PUBLIC, "m", "(I)I", null, null);
+        MethodVisitor adapter =
+                new MonitorMethodAdapter("C", ACC_PUBLIC | ACC_SYNCHRONIZED, "m", "(I)I", null, null, node);
+        Label handler = new Label();
+        Label start = new Label();
+        Label end = new Label();
+        adapter.visitCode();
+        adapter.visitTryCatchBlock(start, end, handler, "java/lang/RuntimeException");
+        adapter.visitLabel(start);
+        adapter.visitVarInsn(ILOAD, 1);
+        adapter.visitLabel(end);
+        adapter.visitInsn(IRETURN);
+        adapter.visitLabel(handler);
+        adapter.visitInsn(ATHROW);
+        adapter.visitMaxs(1, 2);
+        adapter.visitEnd();
+
+        AbstractInsnNode next = node.instructions.getFirst();
+        assertEquals(next.getOpcode(), ALOAD);
+        next = next.getNext();
+        assertInvokeNode(next, "enter");
+
+        while (next.getOpcode() != IRETURN) {
+            next = next.getNext();
+        }
+        assertInvokeNode(next.getPrevious(), "exit");
+        assertEquals(next.getPrevious().getPrevious().getOpcode(), ALOAD);
+
+        assertEquals(node.tryCatchBlocks.size(), 2);
+        assertEquals(node.tryCatchBlocks.get(0).type, "java/lang/RuntimeException");
+        TryCatchBlockNode block = node.tryCatchBlocks.get(1);
+        assertNull(block.type);
+        next = block.handler.getNext();
+        assertTrue(next instanceof FrameNode);
+        assertEquals(((FrameNode) next).stack.get(0), "java/lang/Throwable");
+        next = next.getNext();
+        assertEquals(next.getOpcode(), ALOAD);
+        next = next.getNext();
+        assertInvokeNode(next, "exit");
+        assertEquals(next.getNext().getOpcode(), ATHROW);
+        assertTrue(node.maxStack >= 2);
+    }
+
+    private static void assertInvokeNode(AbstractInsnNode node, String name) {
+        assertEquals(node.getOpcode(), INVOKESTATIC);
+        MethodInsnNode invokeNode = (MethodInsnNode) node;
+        assertEquals(invokeNode.owner, MONITORS);
+        assertEquals(invokeNode.name, name);
+    }
+}
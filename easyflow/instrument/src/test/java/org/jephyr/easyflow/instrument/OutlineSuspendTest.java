@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.apache.commons.io.IOUtils;
+import org.jephyr.continuation.easyflow.EasyFlowContinuation;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+import org.testng.annotations.Test;
+
+import static org.jephyr.easyflow.instrument.EasyFlowClassAdapter.OUTLINE_SUSPEND;
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class OutlineSuspendTest {
+
+    private static final String PREFIX = OutlineSuspendTest.class.getName() + '$';
+    private static final String SUSPEND_METHOD_PREFIX = "easyflow$suspend$";
+
+    public static final class Sample implements Runnable {
+
+        private final StringBuilder log;
+
+        public Sample(StringBuilder log) {
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            int i = 1;
+            long l = 2;
+            double d = 3.5;
+            String s = "s";
+            log.append(i);
+            EasyFlowContinuation.suspend();
+            log.append(l).append(d).append(s);
+            log.append(i + next(i));
+            log.append(s);
+        }
+
+        private static int next(int i) {
+            EasyFlowContinuation.suspend();
+            return i + 1;
+        }
+    }
+
+    @Test
+    public void testSuspendMethods() throws Exception {
+        ClassNode inline = toClassNode(transform(Sample.class.getName(), 0));
+        byte[] bytes = transform(Sample.class.getName(), OUTLINE_SUSPEND);
+        ClassNode outline = toClassNode(bytes);
+
+        int count = 0;
+        for (MethodNode method : outline.methods) {
+            if (method.name.startsWith(SUSPEND_METHOD_PREFIX)) {
+                assertEquals(method.access, ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC);
+                count++;
+            }
+        }
+        assertTrue(count > 0);
+        for (MethodNode method : inline.methods) {
+            assertFalse(method.name.startsWith(SUSPEND_METHOD_PREFIX));
+        }
+        assertTrue(getMethod(outline, "run").instructions.size() < getMethod(inline, "run").instructions.size());
+
+        StringWriter sw = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(bytes), OutlineSuspendTest.class.getClassLoader(), false,
+                new PrintWriter(sw));
+        assertEquals(sw.toString(), "");
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        assertEquals(run(0), "123.5s3s");
+        assertEquals(run(OUTLINE_SUSPEND), "123.5s3s");
+    }
+
+    private static String run(int flags) throws Exception {
+        StringBuilder log = new StringBuilder();
+        Class<?> cls = Class.forName(Sample.class.getName(), true, new TransformingClassLoader(flags));
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(
+                (Runnable) cls.getConstructor(StringBuilder.class).newInstance(log));
+
+        assertTrue(continuation.resume());
+        assertEquals(log.toString(), "1");
+        assertTrue(continuation.resume());
+        assertEquals(log.toString(), "123.5s");
+        assertFalse(continuation.resume());
+        return log.toString();
+    }
+
+    private static ClassNode toClassNode(byte[] bytes) {
+        ClassNode node = new ClassNode();
+        new ClassReader(bytes).accept(node, 0);
+        return node;
+    }
+
+    private static MethodNode getMethod(ClassNode node, String name) {
+        for (MethodNode method : node.methods) {
+            if (method.name.equals(name)) {
+                return method;
+            }
+        }
+        throw new AssertionError(name);
+    }
+
+    private static byte[] transform(String name, int flags) throws IOException {
+        try (InputStream in = OutlineSuspendTest.class.getClassLoader()
+                .getResourceAsStream(name.replace('.', '/') + ".class")) {
+            ClassWriter writer = new ClassWriter(0);
+            new ClassReader(IOUtils.toByteArray(in)).accept(new EasyFlowClassAdapter(t -> true, flags, writer),
+                    EXPAND_FRAMES);
+            return writer.toByteArray();
+        }
+    }
+
+    private static final class TransformingClassLoader extends ClassLoader {
+
+        private final int flags;
+
+        TransformingClassLoader(int flags) {
+            super(OutlineSuspendTest.class.getClassLoader());
+            this.flags = flags;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(PREFIX)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> cls = findLoadedClass(name);
+                if (cls == null) {
+                    byte[] bytes;
+                    try {
+                        bytes = transform(name, flags);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                    cls = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(cls);
+                }
+                return cls;
+            }
+        }
+    }
+}
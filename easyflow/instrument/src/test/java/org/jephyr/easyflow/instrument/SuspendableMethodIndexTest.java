@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public final class SuspendableMethodIndexTest {
+
+    private Path path;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        path = Files.createTempFile("index", null);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        Files.delete(path);
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        SuspendableMethodIndexWriter writer = new SuspendableMethodIndexWriter();
+        for (int i = 0; i < 100; i++) {
+            writer.add("a/C" + i, "m", "()V");
+        }
+        write(writer);
+
+        SuspendableMethodIndex index = SuspendableMethodIndex.load(path);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(index.contains("a/C" + i, "m", "()V"));
+            assertFalse(index.contains("a/C" + i, "m", "()I"));
+            assertFalse(index.contains("a/C" + i, "n", "()V"));
+        }
+        assertFalse(index.contains("a/C100", "m", "()V"));
+    }
+
+    @Test
+    public void testContainsEmpty() throws Exception {
+        write(new SuspendableMethodIndexWriter());
+
+        SuspendableMethodIndex index = SuspendableMethodIndex.load(path);
+        assertFalse(index.contains("a/C", "m", "()V"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testLoadInvalid() throws Exception {
+        Files.write(path, new byte[] {1, 2, 3});
+        SuspendableMethodIndex.load(path);
+    }
+
+    private void write(SuspendableMethodIndexWriter writer) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            writer.write(out);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.easyflow.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.jephyr.continuation.UnsuspendableError;
+import org.jephyr.continuation.easyflow.EasyFlowContinuation;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+import org.testng.annotations.Test;
+
+import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TrustedInstrumentationTest {
+
+    private static final String PREFIX = TrustedInstrumentationTest.class.getName() + '$';
+
+    public static final class ForEachSample implements Runnable {
+
+        private final StringBuilder log;
+
+        public ForEachSample(StringBuilder log) {
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            Arrays.asList(1, 2).forEach(x -> {
+                log.append('f').append(x);
+                EasyFlowContinuation.suspend();
+                log.append('e');
+            });
+        }
+    }
+
+    public static final class ConstructorSample implements Runnable {
+
+        private final StringBuilder log;
+
+        public ConstructorSample(StringBuilder log) {
+            this.log = log;
+        }
+
+        @Override
+        public void run() {
+            EasyFlowContinuation.suspend();
+            new Suspending(log);
+        }
+    }
+
+    public static final class Suspending {
+
+        Suspending(StringBuilder log) {
+            EasyFlowContinuation.suspend();
+            log.append('e');
+        }
+    }
+
+    @Test
+    public void testSuspendInJdkCallback() throws Exception {
+        StringBuilder log = new StringBuilder();
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(newSample(ForEachSample.class, log));
+
+        assertUnsuspendable(continuation);
+        assertEquals(log.toString(), "f1");
+    }
+
+    @Test
+    public void testSuspendInConstructor() throws Exception {
+        StringBuilder log = new StringBuilder();
+        EasyFlowContinuation continuation = EasyFlowContinuation.create(newSample(ConstructorSample.class, log));
+
+        assertTrue(continuation.resume());
+        assertUnsuspendable(continuation);
+        assertEquals(log.toString(), "");
+    }
+
+    private static void assertUnsuspendable(EasyFlowContinuation continuation) {
+        try {
+            continuation.resume();
+            fail();
+        } catch (UnsuspendableError ignored) {
+        }
+    }
+
+    private static Runnable newSample(Class<?> cls, StringBuilder log) throws Exception {
+        Class<?> cls1 = Class.forName(cls.getName(), true, new TrustedClassLoader());
+        Constructor<?> constructor = cls1.getConstructor(StringBuilder.class);
+        return (Runnable) constructor.newInstance(log);
+    }
+
+    private static final class TrustedClassLoader extends ClassLoader {
+
+        TrustedClassLoader() {
+            super(TrustedInstrumentationTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(PREFIX)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> cls = findLoadedClass(name);
+                if (cls == null) {
+                    byte[] bytes = transform(name);
+                    cls = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(cls);
+                }
+                return cls;
+            }
+        }
+
+        private static byte[] transform(String name) throws ClassNotFoundException {
+            String internalName = name.replace('.', '/');
+            String trustedPrefix = Type.getInternalName(TrustedInstrumentationTest.class) + '$';
+            try (InputStream in = TrustedInstrumentationTest.class.getClassLoader()
+                    .getResourceAsStream(internalName + ".class")) {
+                ClassWriter writer = new ClassWriter(0);
+                new ClassReader(IOUtils.toByteArray(in)).accept(new EasyFlowClassAdapter(t -> true, 0,
+                        t -> t.startsWith(trustedPrefix), writer), EXPAND_FRAMES);
+                return writer.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
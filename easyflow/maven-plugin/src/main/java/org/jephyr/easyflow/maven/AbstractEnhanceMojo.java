@@ -26,30 +26,219 @@ package org.jephyr.easyflow.maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.jephyr.easyflow.instrument.AnalyzingMethodRefPredicate;
+import org.jephyr.easyflow.instrument.CallGraphAnalyzer;
 import org.jephyr.easyflow.instrument.EasyFlowClassAdapter;
+import org.jephyr.easyflow.instrument.EasyFlowClassAdapter.ClassEntry;
 import org.jephyr.easyflow.instrument.MethodRef;
+import org.jephyr.easyflow.instrument.SuspendableMethodIndexWriter;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
 
+import static org.apache.commons.io.FileUtils.listFiles;
+import static org.apache.commons.io.FileUtils.openInputStream;
+import static org.apache.commons.io.FileUtils.openOutputStream;
 import static org.apache.commons.io.FileUtils.readFileToByteArray;
 import static org.apache.commons.io.FileUtils.writeByteArrayToFile;
+import static org.apache.commons.io.FileUtils.writeLines;
 import static org.apache.commons.io.FilenameUtils.removeExtension;
+import static org.apache.commons.io.FilenameUtils.separatorsToSystem;
 import static org.apache.commons.io.FilenameUtils.separatorsToUnix;
+import static org.apache.commons.io.IOUtils.readLines;
+import static org.apache.commons.io.IOUtils.toByteArray;
 import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
+import static org.objectweb.asm.ClassReader.SKIP_CODE;
+import static org.objectweb.asm.Opcodes.ASM5;
 
 public abstract class AbstractEnhanceMojo extends org.jephyr.common.maven.AbstractEnhanceMojo {
 
+    private static final String TRUSTED_MANIFEST = "META-INF/jephyr/easyflow-trusted";
+
     @Parameter
     private Collection<String> excludedMethods;
 
+    @Parameter
+    private boolean cloneMethods;
+
+    @Parameter
+    private boolean outlineSuspend;
+
+    @Parameter
+    private boolean suspendableMonitors;
+
+    @Parameter
+    private boolean desugarLambdas;
+
+    @Parameter
+    private boolean trusted;
+
+    @Parameter
+    private boolean analyzeCallGraph;
+
+    @Parameter
+    private File indexFile;
+
+    private CallGraphAnalyzer analyzer;
+    private Set<String> trustedClassNames;
+
     @Override
-    protected final void initialize() {
+    protected final void initialize() throws MojoExecutionException {
+        if (analyzeCallGraph) {
+            analyze();
+        }
+        if (indexFile != null) {
+            writeIndex();
+        }
+        if (trusted) {
+            writeTrustedManifest();
+            addTrustedClassNames();
+        }
+    }
+
+    private void analyze() throws MojoExecutionException {
+        analyzer = new CallGraphAnalyzer();
+
+        File classesDirectory = getClassesDirectory();
+        if (classesDirectory.isDirectory()) {
+            addClasses(classesDirectory);
+        }
+
+        for (String element : getClasspathElements()) {
+            File file = new File(element);
+            if (file.isDirectory()) {
+                addClasses(file);
+            } else if (file.isFile()) {
+                addJar(file);
+            }
+        }
+
+        analyzer.analyze((className, ref) -> excludedMethods == null ||
+                !excludedMethods.contains(className + '.' + ref.getName() + ref.getDesc()));
+    }
+
+    private void addClasses(File directory) throws MojoExecutionException {
+        for (File file : listFiles(directory, new String[] {"class"}, true)) {
+            try {
+                analyzer.addClass(readFileToByteArray(file));
+            } catch (IOException e) {
+                throw new MojoExecutionException("Failed to read " + file, e);
+            }
+        }
+    }
+
+    private void addJar(File file) throws MojoExecutionException {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(".class")) {
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        analyzer.addClass(toByteArray(in));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read " + file, e);
+        }
+    }
+
+    private void writeIndex() throws MojoExecutionException {
+        SuspendableMethodIndexWriter indexWriter = new SuspendableMethodIndexWriter();
+
+        File classesDirectory = getClassesDirectory();
+        if (classesDirectory.isDirectory()) {
+            for (File file : listFiles(classesDirectory, new String[] {"class"}, true)) {
+                byte[] original;
+                try {
+                    original = readFileToByteArray(file);
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Failed to read " + file, e);
+                }
+                String className = getClassName(file);
+                Predicate<MethodRef> methodRefPredicate = getMethodRefPredicate(className, original);
+                new ClassReader(original).accept(new ClassVisitor(ASM5) {
+
+                    @Override
+                    public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                            String[] exceptions) {
+                        if (methodRefPredicate.test(new MethodRef(name, desc))) {
+                            indexWriter.add(className, name, desc);
+                        }
+                        return null;
+                    }
+                }, SKIP_CODE);
+            }
+        }
+
+        try (OutputStream out = openOutputStream(indexFile)) {
+            indexWriter.write(out);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + indexFile, e);
+        }
+    }
+
+    private void writeTrustedManifest() throws MojoExecutionException {
+        Collection<String> classNames = new TreeSet<>();
+
+        File classesDirectory = getClassesDirectory();
+        if (classesDirectory.isDirectory()) {
+            for (File file : listFiles(classesDirectory, new String[] {"class"}, true)) {
+                classNames.add(getClassName(file));
+            }
+        }
+
+        File manifestFile = new File(getOutputDirectory(), TRUSTED_MANIFEST);
+        try {
+            writeLines(manifestFile, "UTF-8", classNames, "\n");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write " + manifestFile, e);
+        }
+
+        trustedClassNames = new HashSet<>(classNames);
+    }
+
+    private void addTrustedClassNames() throws MojoExecutionException {
+        for (String element : getClasspathElements()) {
+            File file = new File(element);
+            if (file.isDirectory()) {
+                File manifestFile = new File(file, TRUSTED_MANIFEST);
+                if (manifestFile.isFile()) {
+                    try (InputStream in = openInputStream(manifestFile)) {
+                        trustedClassNames.addAll(readLines(in, "UTF-8"));
+                    } catch (IOException e) {
+                        throw new MojoExecutionException("Failed to read " + manifestFile, e);
+                    }
+                }
+            } else if (file.isFile()) {
+                try (ZipFile zipFile = new ZipFile(file)) {
+                    ZipEntry entry = zipFile.getEntry(TRUSTED_MANIFEST);
+                    if (entry != null) {
+                        try (InputStream in = zipFile.getInputStream(entry)) {
+                            trustedClassNames.addAll(readLines(in, "UTF-8"));
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Failed to read " + file, e);
+                }
+            }
+        }
     }
 
     @Override
@@ -61,19 +250,27 @@ public abstract class AbstractEnhanceMojo extends org.jephyr.common.maven.Abstra
             throw new MojoExecutionException("Failed to read " + srcFile, e);
         }
 
-        Predicate<MethodRef> methodRefPredicate;
-        if (excludedMethods == null) {
-            methodRefPredicate = t -> true;
-        } else {
-            String className = separatorsToUnix(
-                    removeExtension(getClassesDirectory().toPath().relativize(srcFile.toPath()).toString()));
-            methodRefPredicate = new AnalyzingMethodRefPredicate(original,
-                    t -> !excludedMethods.contains(className + '.' + t.getName() + t.getDesc()));
-        }
+        Predicate<MethodRef> methodRefPredicate = getMethodRefPredicate(getClassName(srcFile), original);
 
         ClassWriter writer = new ClassWriter(0);
         ClassReader reader = new ClassReader(original);
-        reader.accept(new EasyFlowClassAdapter(methodRefPredicate, writer), EXPAND_FRAMES);
+        int flags = 0;
+        if (cloneMethods) {
+            flags |= EasyFlowClassAdapter.CLONE_METHODS;
+        }
+        if (outlineSuspend) {
+            flags |= EasyFlowClassAdapter.OUTLINE_SUSPEND;
+        }
+        if (suspendableMonitors) {
+            flags |= EasyFlowClassAdapter.SUSPENDABLE_MONITORS;
+        }
+        if (desugarLambdas) {
+            flags |= EasyFlowClassAdapter.DESUGAR_LAMBDAS;
+        }
+        Set<String> trustedClassNames = this.trustedClassNames;
+        EasyFlowClassAdapter cv = new EasyFlowClassAdapter(methodRefPredicate, flags,
+                trustedClassNames == null ? t -> false : trustedClassNames::contains, writer);
+        reader.accept(cv, EXPAND_FRAMES);
         byte[] enhanced = writer.toByteArray();
 
         try {
@@ -81,5 +278,36 @@ public abstract class AbstractEnhanceMojo extends org.jephyr.common.maven.Abstra
         } catch (IOException e) {
             throw new MojoExecutionException("Failed to write " + destFile, e);
         }
+
+        Collection<ClassEntry> classEntries = cv.getClassEntries();
+        if (classEntries != null && !classEntries.isEmpty()) {
+            Path outputPath = getOutputDirectory().toPath();
+
+            for (ClassEntry entry : classEntries) {
+                File destFile1 = outputPath.resolve(separatorsToSystem(entry.name) + ".class").toFile();
+                try {
+                    writeByteArrayToFile(destFile1, entry.bytes);
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Failed to write " + destFile1, e);
+                }
+            }
+        }
     }
+
+    private String getClassName(File file) {
+        return separatorsToUnix(removeExtension(getClassesDirectory().toPath().relativize(file.toPath()).toString()));
+    }
+
+    private Predicate<MethodRef> getMethodRefPredicate(String className, byte[] original) {
+        if (analyzer != null) {
+            return analyzer.getMethodRefPredicate(className);
+        } else if (excludedMethods == null) {
+            return t -> true;
+        } else {
+            return new AnalyzingMethodRefPredicate(original,
+                    t -> !excludedMethods.contains(className + '.' + t.getName() + t.getDesc()));
+        }
+    }
+
+    protected abstract List<String> getClasspathElements();
 }
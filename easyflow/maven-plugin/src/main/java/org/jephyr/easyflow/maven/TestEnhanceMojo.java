@@ -25,6 +25,7 @@
 package org.jephyr.easyflow.maven;
 
 import java.io.File;
+import java.util.List;
 
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -39,6 +40,8 @@ public final class TestEnhanceMojo extends AbstractEnhanceMojo {
     private File testClassesDirectory;
     @Parameter(defaultValue = "${project.build.directory}/enhanced-test-classes", required = true)
     private File testOutputDirectory;
+    @Parameter(defaultValue = "${project.testClasspathElements}", readonly = true, required = true)
+    private List<String> classpathElements;
 
     @Override
     protected File getClassesDirectory() {
@@ -49,4 +52,9 @@ public final class TestEnhanceMojo extends AbstractEnhanceMojo {
     protected File getOutputDirectory() {
         return testOutputDirectory;
     }
+
+    @Override
+    protected List<String> getClasspathElements() {
+        return classpathElements;
+    }
 }
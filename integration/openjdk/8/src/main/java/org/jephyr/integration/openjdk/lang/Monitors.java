@@ -0,0 +1,231 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.integration.openjdk.lang;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import jephyr.java.lang.Thread;
+import jephyr.java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+public final class Monitors {
+
+    private static final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private static final Object lock = new Object();
+    private static volatile SyncKey[] syncKeys = new SyncKey[16];
+    private static int syncCount;
+
+    private Monitors() {
+    }
+
+    public static void enter(Object obj) {
+        getSync(requireNonNull(obj)).acquire(1);
+    }
+
+    public static void exit(Object obj) {
+        getOwnedSync(obj).release(1);
+    }
+
+    public static void wait(Object obj) throws InterruptedException {
+        getOwnedSync(obj).condition.await();
+    }
+
+    public static void wait(Object obj, long timeout) throws InterruptedException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout value is negative");
+        }
+        await(getOwnedSync(obj), MILLISECONDS.toNanos(timeout));
+    }
+
+    public static void wait(Object obj, long timeout, int nanos) throws InterruptedException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout value is negative");
+        }
+        if (nanos < 0 || nanos > 999999) {
+            throw new IllegalArgumentException("nanosecond timeout value out of range");
+        }
+        long nanosTimeout = MILLISECONDS.toNanos(timeout);
+        await(getOwnedSync(obj), nanosTimeout == Long.MAX_VALUE ? nanosTimeout : nanosTimeout + nanos);
+    }
+
+    public static void notify(Object obj) {
+        getOwnedSync(obj).condition.signal();
+    }
+
+    public static void notifyAll(Object obj) {
+        getOwnedSync(obj).condition.signalAll();
+    }
+
+    private static void await(Sync sync, long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout == 0) {
+            sync.condition.await();
+        } else {
+            sync.condition.awaitNanos(nanosTimeout);
+        }
+    }
+
+    private static Sync getOwnedSync(Object obj) {
+        SyncKey key = find(syncKeys, requireNonNull(obj));
+        if (key == null) {
+            synchronized (lock) {
+                key = find(syncKeys, obj);
+            }
+            if (key == null) {
+                throw new IllegalMonitorStateException();
+            }
+        }
+        return key.sync;
+    }
+
+    private static Sync getSync(Object obj) {
+        SyncKey key = find(syncKeys, obj);
+        if (key != null) {
+            return key.sync;
+        }
+        synchronized (lock) {
+            SyncKey[] keys = syncKeys;
+            key = find(keys, obj);
+            if (key != null) {
+                return key.sync;
+            }
+            boolean stale = false;
+            while (queue.poll() != null) {
+                stale = true;
+            }
+            if (stale || (syncCount + 1) * 2 > keys.length) {
+                keys = rehash(keys);
+            }
+            key = new SyncKey(obj, new Sync(), queue);
+            insert(keys, key);
+            syncCount++;
+            syncKeys = keys;
+            return key.sync;
+        }
+    }
+
+    private static SyncKey find(SyncKey[] keys, Object obj) {
+        int mask = keys.length - 1;
+        for (int i = System.identityHashCode(obj) & mask; ; i = (i + 1) & mask) {
+            SyncKey key = keys[i];
+            if (key == null || key.get() == obj) {
+                return key;
+            }
+        }
+    }
+
+    private static SyncKey[] rehash(SyncKey[] keys) {
+        int count = 0;
+        for (SyncKey key : keys) {
+            if (key != null && key.get() != null) {
+                count++;
+            }
+        }
+        int length = 16;
+        while ((count + 1) * 4 > length) {
+            length <<= 1;
+        }
+        SyncKey[] newKeys = new SyncKey[length];
+        for (SyncKey key : keys) {
+            if (key != null && key.get() != null) {
+                insert(newKeys, key);
+            }
+        }
+        syncCount = count;
+        return newKeys;
+    }
+
+    private static void insert(SyncKey[] keys, SyncKey key) {
+        int mask = keys.length - 1;
+        int i = key.hash & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+    }
+
+    private static final class Sync extends AbstractQueuedSynchronizer {
+
+        private static final long serialVersionUID = -1948620385367408512L;
+
+        final ConditionObject condition = new ConditionObject();
+
+        Sync() {
+        }
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                if (compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    return true;
+                }
+            } else if (current == getExclusiveOwnerThread()) {
+                int nextc = c + acquires;
+                if (nextc < 0) {
+                    throw new Error("Maximum lock count exceeded");
+                }
+                setState(nextc);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int releases) {
+            if (Thread.currentThread() != getExclusiveOwnerThread()) {
+                throw new IllegalMonitorStateException();
+            }
+            int c = getState() - releases;
+            boolean free = c == 0;
+            if (free) {
+                setExclusiveOwnerThread(null);
+            }
+            setState(c);
+            return free;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+    }
+
+    private static final class SyncKey extends WeakReference<Object> {
+
+        final int hash;
+        final Sync sync;
+
+        SyncKey(Object referent, Sync sync, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            hash = System.identityHashCode(referent);
+            this.sync = sync;
+        }
+    }
+}
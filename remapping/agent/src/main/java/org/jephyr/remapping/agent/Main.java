@@ -25,55 +25,33 @@
 package org.jephyr.remapping.agent;
 
 import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
-import java.util.HashMap;
+import java.nio.file.Paths;
 import java.util.Map;
 import java.util.Properties;
-import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
+import org.jephyr.common.agent.CachingClassFileTransformer;
+
+import static org.jephyr.common.agent.AgentUtils.getClassNamePredicate;
+import static org.jephyr.common.agent.AgentUtils.getConfiguration;
 import static org.jephyr.common.agent.AgentUtils.parseArgs;
+import static org.jephyr.common.agent.AgentUtils.parseMapping;
 
 public final class Main {
 
-    private static final String KEY_VALUE_DELIM = ":";
-    private static final String ENTRY_DELIM = ";";
-
     public static void premain(String agentArgs, Instrumentation inst) throws IOException {
         Properties props = parseArgs(agentArgs);
-        Pattern includes = getPattern(props.getProperty("includes"));
-        Pattern excludes = getPattern(props.getProperty("excludes"));
-        Predicate<String> classNamePredicate = t -> (includes == null || includes.matcher(t).find()) &&
-                (excludes == null || !excludes.matcher(t).find());
-        Function<String, String> mapper = parseMapper(props.getProperty("mapping"));
-        inst.addTransformer(new RemappingClassFileTransformer(classNamePredicate, mapper));
-    }
-
-    private static Pattern getPattern(String regex) {
-        return regex == null ? null : Pattern.compile(regex);
-    }
-
-    private static Function<String, String> parseMapper(String mapping) {
-        if (mapping == null) {
-            return t -> null;
-        }
-
-        Map<String, String> map = new HashMap<>();
-        int length1 = KEY_VALUE_DELIM.length();
-        int length2 = ENTRY_DELIM.length();
-        int fromIndex = 0;
-        while (true) {
-            int index1 = mapping.indexOf(KEY_VALUE_DELIM, fromIndex);
-            String key = mapping.substring(fromIndex, index1);
-            fromIndex = index1 + length1;
-            int index2 = mapping.indexOf(ENTRY_DELIM, fromIndex);
-            if (index2 < 0) {
-                map.put(key, mapping.substring(fromIndex));
-                return map::get;
-            }
-            map.put(key, mapping.substring(fromIndex, index2));
-            fromIndex = index2 + length2;
+        Predicate<String> classNamePredicate =
+                getClassNamePredicate(props.getProperty("includes"), props.getProperty("excludes"));
+        Map<String, String> mapping = parseMapping(props.getProperty("mapping"));
+        ClassFileTransformer transformer = new RemappingClassFileTransformer(classNamePredicate, mapping);
+        String cache = props.getProperty("cache");
+        if (cache != null) {
+            transformer = new CachingClassFileTransformer(transformer, Paths.get(cache),
+                    getConfiguration(props, Main.class));
         }
+        inst.addTransformer(transformer);
     }
 }
@@ -26,7 +26,7 @@ package org.jephyr.remapping.agent;
 
 import java.lang.instrument.ClassFileTransformer;
 import java.security.ProtectionDomain;
-import java.util.function.Function;
+import java.util.Map;
 import java.util.function.Predicate;
 
 import org.jephyr.common.agent.ClassNameAwareClassAdapter;
@@ -34,26 +34,31 @@ import org.jephyr.remapping.instrument.RemappingClassAdapter;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
+import static org.jephyr.common.agent.ConstantPoolScanner.hasUtf8Containing;
 import static org.objectweb.asm.ClassReader.EXPAND_FRAMES;
 
 final class RemappingClassFileTransformer implements ClassFileTransformer {
 
     private final Predicate<String> classNamePredicate;
-    private final Function<String, String> mapper;
+    private final Map<String, String> mapping;
 
-    RemappingClassFileTransformer(Predicate<String> classNamePredicate, Function<String, String> mapper) {
+    RemappingClassFileTransformer(Predicate<String> classNamePredicate, Map<String, String> mapping) {
         this.classNamePredicate = classNamePredicate;
-        this.mapper = mapper;
+        this.mapping = mapping;
     }
 
     @Override
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
             ProtectionDomain protectionDomain, byte[] classfileBuffer) {
         try {
+            if (className != null && !classNamePredicate.test(className) ||
+                    !hasUtf8Containing(classfileBuffer, mapping.keySet())) {
+                return null;
+            }
             ClassReader reader = new ClassReader(classfileBuffer);
             ClassWriter writer = new ClassWriter(0);
-            reader.accept(new ClassNameAwareClassAdapter(classNamePredicate, new RemappingClassAdapter(mapper, writer),
-                    writer), EXPAND_FRAMES);
+            reader.accept(new ClassNameAwareClassAdapter(classNamePredicate,
+                    new RemappingClassAdapter(mapping::get, writer), writer), EXPAND_FRAMES);
             return writer.toByteArray();
         } catch (Throwable e) {
             System.err.println("Failed to transform class " + className);
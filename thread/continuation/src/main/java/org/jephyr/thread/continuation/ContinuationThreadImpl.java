@@ -24,18 +24,17 @@
 
 package org.jephyr.thread.continuation;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinPool.ManagedBlocker;
 import java.util.concurrent.ForkJoinTask;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.LockSupport;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.jephyr.continuation.Continuation;
 import org.jephyr.continuation.UnsuspendableError;
@@ -48,41 +47,52 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
     private static final int PARK = 0;
     private static final int TIMED_PARK = 1;
     private static final int YIELD = 2;
+    private static final int MAX_HAND_OFFS = 64;
+    private static final int MAX_PENDING = 64;
 
     private static final boolean debug;
+    private static final boolean defaultAffinity;
     private final AtomicInteger state = new AtomicInteger(NEW);
-    private final ForkJoinTask<Void> executeTask = new ExecuteTask();
-    private final Runnable unparkTask = new UnparkTask();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ExecuteTask executeTask = new ExecuteTask();
+    private final UnparkTask unparkTask = new UnparkTask();
     private final ManagedBlocker blocker = new ParkBlocker();
     private final AtomicReference<Node<T>> joiner = new AtomicReference<>();
     private final T thread;
     private final ThreadAccess<T> threadAccess;
-    private final ForkJoinPool pool;
-    private final ScheduledExecutorService scheduler;
+    private final Executor scheduler;
+    private final TimingWheel timer;
     private final TerminationHandler terminationHandler;
+    private final boolean affinity;
     private final Continuation continuation;
     private volatile boolean interrupted;
     private volatile boolean unparked;
-    private ScheduledFuture<?> cancelable;
     private int action;
     private volatile Thread javaThread;
     private volatile boolean daemon;
-    private static int threadCount;
-    private static final Lock awaitLock = new ReentrantLock();
-    private static final Condition awaitCondition = awaitLock.newCondition();
-    private static Thread awaitThread;
+    private Carrier lastCarrier;
+    static final AtomicInteger threadCount = new AtomicInteger();
+    static final AtomicReference<Thread> awaitThread = new AtomicReference<>();
+    static final ThreadLocal<Carrier> carriers = new ThreadLocal<>();
 
     static {
         debug = Boolean.getBoolean(ContinuationThreadImpl.class.getName() + ".debug");
+        defaultAffinity = Boolean.getBoolean(ContinuationThreadImpl.class.getName() + ".affinity");
     }
 
-    ContinuationThreadImpl(T thread, ThreadAccess<T> threadAccess, ForkJoinPool pool,
-            ScheduledExecutorService scheduler, TerminationHandler terminationHandler) {
+    ContinuationThreadImpl(T thread, ThreadAccess<T> threadAccess, Executor scheduler,
+            TimingWheel timer, TerminationHandler terminationHandler) {
+        this(thread, threadAccess, scheduler, timer, terminationHandler, defaultAffinity);
+    }
+
+    ContinuationThreadImpl(T thread, ThreadAccess<T> threadAccess, Executor scheduler,
+            TimingWheel timer, TerminationHandler terminationHandler, boolean affinity) {
         this.thread = thread;
         this.threadAccess = threadAccess;
-        this.pool = pool;
         this.scheduler = scheduler;
+        this.timer = timer;
         this.terminationHandler = terminationHandler;
+        this.affinity = affinity;
         continuation = Continuation.create(thread);
     }
 
@@ -103,35 +113,10 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
             throw new IllegalStateException();
         }
         this.daemon = daemon;
-        if (!daemon) {
-            awaitLock.lock();
-            try {
-                threadCount++;
-                if (awaitThread == null) {
-                    awaitThread = new Thread() {
-                        @Override
-                        public void run() {
-                            awaitLock.lock();
-                            try {
-                                while (threadCount > 0) {
-                                    try {
-                                        awaitCondition.await();
-                                    } catch (InterruptedException ignored) {
-                                    }
-                                }
-                                awaitThread = null;
-                            } finally {
-                                awaitLock.unlock();
-                            }
-                        }
-                    };
-                    awaitThread.start();
-                }
-            } finally {
-                awaitLock.unlock();
-            }
+        if (!daemon && threadCount.getAndIncrement() == 0) {
+            startAwaitThread();
         }
-        pool.execute(executeTask);
+        schedule();
     }
 
     @Override
@@ -147,6 +132,7 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
                     System.err.println("Failed to suspend");
                     e.printStackTrace(System.err);
                 }
+                flushCarrier();
                 javaThread = Thread.currentThread();
                 state.set(WAITING);
                 if (unparked && state.compareAndSet(WAITING, RUNNABLE)) {
@@ -167,7 +153,7 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
         if (unparked) {
             unparked = false;
         } else {
-            cancelable = scheduler.schedule(unparkTask, timeout, unit);
+            timer.schedule(unparkTask, timeout, unit);
             action = TIMED_PARK;
             try {
                 Continuation.suspend();
@@ -176,11 +162,11 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
                     System.err.println("Failed to suspend");
                     e.printStackTrace(System.err);
                 }
+                flushCarrier();
                 javaThread = Thread.currentThread();
                 state.set(TIMED_WAITING);
                 if (unparked && state.compareAndSet(TIMED_WAITING, RUNNABLE)) {
-                    cancelable.cancel(false);
-                    cancelable = null;
+                    timer.cancel(unparkTask);
                     unparked = false;
                     javaThread = null;
                 } else {
@@ -211,7 +197,7 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
                         unparked = false;
                         Thread javaThread = this.javaThread;
                         if (javaThread == null) {
-                            pool.execute(executeTask);
+                            dispatch();
                         } else {
                             this.javaThread = null;
                             LockSupport.unpark(javaThread);
@@ -221,12 +207,11 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
                     break;
                 case TIMED_WAITING:
                     if (state.compareAndSet(TIMED_WAITING, RUNNABLE)) {
-                        cancelable.cancel(false);
-                        cancelable = null;
+                        timer.cancel(unparkTask);
                         unparked = false;
                         Thread javaThread = this.javaThread;
                         if (javaThread == null) {
-                            pool.execute(executeTask);
+                            dispatch();
                         } else {
                             this.javaThread = null;
                             LockSupport.unpark(javaThread);
@@ -338,6 +323,7 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
                 System.err.println("Failed to suspend");
                 e.printStackTrace(System.err);
             }
+            flushCarrier();
             Thread.yield();
         }
     }
@@ -363,30 +349,26 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
                     state.set(WAITING);
                     if (unparked && state.compareAndSet(WAITING, RUNNABLE)) {
                         unparked = false;
-                        pool.execute(executeTask);
+                        schedule();
                     }
                     break;
                 case TIMED_PARK:
                     state.set(TIMED_WAITING);
                     if (unparked && state.compareAndSet(TIMED_WAITING, RUNNABLE)) {
-                        cancelable.cancel(false);
-                        cancelable = null;
+                        timer.cancel(unparkTask);
                         unparked = false;
-                        pool.execute(executeTask);
+                        schedule();
                     }
                     break;
                 default:
-                    pool.execute(executeTask);
+                    schedule();
             }
         } else {
             state.set(TERMINATED);
-            if (!daemon) {
-                awaitLock.lock();
-                try {
-                    threadCount--;
-                    awaitCondition.signalAll();
-                } finally {
-                    awaitLock.unlock();
+            if (!daemon && threadCount.decrementAndGet() == 0) {
+                Thread awaitThread = ContinuationThreadImpl.awaitThread.get();
+                if (awaitThread != null) {
+                    LockSupport.unpark(awaitThread);
                 }
             }
 
@@ -407,7 +389,44 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
         }
     }
 
-    private final class ExecuteTask extends ForkJoinTask<Void> {
+    private void dispatch() {
+        scheduled.set(true);
+        Carrier carrier = carriers.get();
+        Carrier lastCarrier = this.lastCarrier;
+        if (!affinity || lastCarrier == null || lastCarrier == carrier || !lastCarrier.offer(this)) {
+            if (carrier != null && carrier.scheduler == scheduler) {
+                carrier.next.set(this);
+            }
+        }
+        scheduler.execute(executeTask);
+    }
+
+    private void schedule() {
+        scheduled.set(true);
+        scheduler.execute(executeTask);
+    }
+
+    private boolean claim() {
+        return scheduled.get() && scheduled.compareAndSet(true, false);
+    }
+
+    private static void flushCarrier() {
+        Carrier carrier = carriers.get();
+        if (carrier != null) {
+            carrier.clear();
+        }
+    }
+
+    private static void startAwaitThread() {
+        if (awaitThread.get() == null) {
+            Thread thread = new AwaitThread();
+            if (awaitThread.compareAndSet(null, thread)) {
+                thread.start();
+            }
+        }
+    }
+
+    private final class ExecuteTask extends ForkJoinTask<Void> implements Runnable {
 
         ExecuteTask() {
         }
@@ -421,20 +440,57 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
         protected void setRawResult(Void value) {
         }
 
+        @Override
+        public void run() {
+            exec();
+        }
+
         @Override
         protected boolean exec() {
-            execute();
+            if (!claim()) {
+                return false;
+            }
+            Carrier carrier = carriers.get();
+            if (carrier == null) {
+                carrier = new Carrier();
+                carriers.set(carrier);
+            }
+            Executor previous = carrier.scheduler;
+            carrier.scheduler = scheduler;
+            try {
+                ContinuationThreadImpl<?> impl = ContinuationThreadImpl.this;
+                int handOffs = 0;
+                while (true) {
+                    if (impl.affinity) {
+                        impl.lastCarrier = carrier;
+                    }
+                    impl.execute();
+                    impl = carrier.take();
+                    if (impl == null) {
+                        break;
+                    }
+                    if (++handOffs == MAX_HAND_OFFS) {
+                        impl.schedule();
+                        break;
+                    }
+                }
+            } finally {
+                carrier.scheduler = previous;
+                if (previous == null) {
+                    carrier.clear();
+                }
+            }
             return false;
         }
     }
 
-    private final class UnparkTask implements Runnable {
+    private final class UnparkTask extends TimingWheel.Timeout {
 
         UnparkTask() {
         }
 
         @Override
-        public void run() {
+        void expire() {
             unpark();
         }
     }
@@ -456,6 +512,73 @@ final class ContinuationThreadImpl<T extends Runnable> extends ThreadImpl {
         }
     }
 
+    private static final class AwaitThread extends Thread {
+
+        AwaitThread() {
+            setDaemon(false);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                while (threadCount.get() > 0) {
+                    LockSupport.park(this);
+                }
+                awaitThread.compareAndSet(this, null);
+                if (threadCount.get() == 0 || !awaitThread.compareAndSet(null, this)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Carrier {
+
+        final AtomicReference<ContinuationThreadImpl<?>> next = new AtomicReference<>();
+        private final Queue<ContinuationThreadImpl<?>> inbox = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        volatile Executor scheduler;
+
+        Carrier() {
+        }
+
+        boolean offer(ContinuationThreadImpl<?> impl) {
+            if (scheduler != impl.scheduler || pending.get() >= MAX_PENDING) {
+                return false;
+            }
+            pending.incrementAndGet();
+            inbox.add(impl);
+            return true;
+        }
+
+        ContinuationThreadImpl<?> take() {
+            ContinuationThreadImpl<?> impl = next.getAndSet(null);
+            if (impl != null && impl.claim()) {
+                return impl;
+            }
+            while ((impl = poll()) != null) {
+                if (impl.claim()) {
+                    return impl;
+                }
+            }
+            return null;
+        }
+
+        void clear() {
+            next.set(null);
+            while (poll() != null) {
+            }
+        }
+
+        private ContinuationThreadImpl<?> poll() {
+            ContinuationThreadImpl<?> impl = inbox.poll();
+            if (impl != null) {
+                pending.decrementAndGet();
+            }
+            return impl;
+        }
+    }
+
     private static final class Node<T> {
 
         final AtomicReference<T> thread = new AtomicReference<>();
@@ -24,7 +24,7 @@
 
 package org.jephyr.thread.continuation;
 
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jephyr.thread.TerminationHandler;
@@ -37,16 +37,16 @@ import static java.util.Objects.requireNonNull;
 public final class ContinuationThreadImplProvider extends ThreadImplProvider {
 
     private static final AtomicInteger providerNum = new AtomicInteger(1);
-    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
-        Thread thread = new Thread(r);
-        thread.setName(ContinuationThreadImplProvider.class.getSimpleName() + '-' + providerNum.getAndIncrement() +
-                "-scheduler");
-        thread.setDaemon(true);
-        return thread;
-    });
+    private final TimingWheel timer = new TimingWheel(
+            ContinuationThreadImplProvider.class.getSimpleName() + '-' + providerNum.getAndIncrement() + "-timer");
+    private final Executor scheduler;
 
     public ContinuationThreadImplProvider() {
-        scheduler.prestartCoreThread();
+        this(SchedulerProvider.provider().getScheduler());
+    }
+
+    public ContinuationThreadImplProvider(Executor scheduler) {
+        this.scheduler = requireNonNull(scheduler);
     }
 
     @Override
@@ -54,7 +54,6 @@ public final class ContinuationThreadImplProvider extends ThreadImplProvider {
             TerminationHandler terminationHandler) {
         requireNonNull(thread);
         requireNonNull(threadAccess);
-        return new ContinuationThreadImpl<>(thread, threadAccess, ForkJoinPoolProvider.provider().getPool(), scheduler,
-                terminationHandler);
+        return new ContinuationThreadImpl<>(thread, threadAccess, scheduler, timer, terminationHandler);
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.thread.continuation;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.Executor;
+
+public abstract class SchedulerProvider {
+
+    protected SchedulerProvider() {
+    }
+
+    public static SchedulerProvider provider() {
+        return Holder.provider;
+    }
+
+    public abstract Executor getScheduler();
+
+    private static final class Holder {
+
+        static final SchedulerProvider provider = load();
+
+        private static SchedulerProvider load() {
+            String className = System.getProperty(SchedulerProvider.class.getName());
+            if (className == null) {
+                ServiceLoader<SchedulerProvider> loader = ServiceLoader.load(SchedulerProvider.class);
+                Iterator<SchedulerProvider> iterator = loader.iterator();
+                if (iterator.hasNext()) {
+                    return iterator.next();
+                } else {
+                    return new DefaultSchedulerProvider();
+                }
+            }
+            try {
+                return (SchedulerProvider) Class.forName(className).getConstructor().newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException |
+                    InvocationTargetException | NoSuchMethodException e) {
+                throw new ServiceConfigurationError(null, e);
+            }
+        }
+    }
+}
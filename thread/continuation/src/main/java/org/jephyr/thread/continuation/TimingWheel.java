@@ -0,0 +1,255 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.thread.continuation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+final class TimingWheel {
+
+    static final int LEVEL_BITS = 8;
+    static final int LEVELS = 3;
+    static final int WHEEL_SIZE = 1 << LEVEL_BITS;
+    static final long MAX_DELTA = (1L << LEVEL_BITS * LEVELS) - 1;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long startTime = System.nanoTime();
+    private final Shard[] shards;
+    private final Thread ticker;
+    private volatile long wakeTick = Long.MAX_VALUE;
+
+    TimingWheel(String name) {
+        int n = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        shards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard();
+        }
+        ticker = new Thread(new Ticker(), name);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    void schedule(Timeout timeout, long delay, TimeUnit unit) {
+        long deadline = (System.nanoTime() - startTime + unit.toNanos(delay) + TICK_NANOS - 1) / TICK_NANOS;
+        Shard shard = getShard(timeout);
+        synchronized (shard) {
+            if (timeout.bucket != -1) {
+                shard.remove(timeout);
+            } else if (shard.count == 0) {
+                long tick = currentTick();
+                if (shard.tick < tick) {
+                    shard.tick = tick;
+                }
+            }
+            timeout.deadline = deadline;
+            shard.add(timeout);
+        }
+        if (deadline < wakeTick) {
+            LockSupport.unpark(ticker);
+        }
+    }
+
+    void cancel(Timeout timeout) {
+        Shard shard = getShard(timeout);
+        synchronized (shard) {
+            if (timeout.bucket != -1) {
+                shard.remove(timeout);
+            }
+        }
+    }
+
+    private Shard getShard(Timeout timeout) {
+        return shards[System.identityHashCode(timeout) & shards.length - 1];
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startTime) / TICK_NANOS;
+    }
+
+    boolean isEmpty() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (shard.count > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    abstract static class Timeout {
+
+        long deadline;
+        int bucket = -1;
+        Timeout previous;
+        Timeout next;
+
+        abstract void expire();
+    }
+
+    static final class Shard {
+
+        final Timeout[] buckets = new Timeout[WHEEL_SIZE * LEVELS];
+        long tick;
+        int count;
+        int upperCount;
+
+        Shard() {
+        }
+
+        void add(Timeout timeout) {
+            long delta = timeout.deadline - tick;
+            int bucket;
+            if (delta <= 0) {
+                bucket = (int) (tick + 1 & WHEEL_MASK);
+            } else {
+                long deadline = delta > MAX_DELTA ? tick + MAX_DELTA : timeout.deadline;
+                int level = 0;
+                while (delta >= WHEEL_SIZE && level < LEVELS - 1) {
+                    delta >>>= LEVEL_BITS;
+                    level++;
+                }
+                bucket = level * WHEEL_SIZE + (int) (deadline >>> level * LEVEL_BITS & WHEEL_MASK);
+            }
+            if (bucket >= WHEEL_SIZE) {
+                upperCount++;
+            }
+            Timeout head = buckets[bucket];
+            timeout.bucket = bucket;
+            timeout.previous = null;
+            timeout.next = head;
+            if (head != null) {
+                head.previous = timeout;
+            }
+            buckets[bucket] = timeout;
+            count++;
+        }
+
+        void remove(Timeout timeout) {
+            Timeout previous = timeout.previous;
+            Timeout next = timeout.next;
+            if (previous == null) {
+                buckets[timeout.bucket] = next;
+            } else {
+                previous.next = next;
+            }
+            if (next != null) {
+                next.previous = previous;
+            }
+            if (timeout.bucket >= WHEEL_SIZE) {
+                upperCount--;
+            }
+            timeout.bucket = -1;
+            timeout.previous = null;
+            timeout.next = null;
+            count--;
+        }
+
+        void advance(long now, Collection<Timeout> expired) {
+            while (tick < now) {
+                long next = count == 0 ? now + 1 : nextTick();
+                if (next > now) {
+                    tick = now;
+                    return;
+                }
+                tick = next;
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((tick & (1L << level * LEVEL_BITS) - 1) == 0) {
+                        cascade(level * WHEEL_SIZE + (int) (tick >>> level * LEVEL_BITS & WHEEL_MASK), expired);
+                    }
+                }
+                Timeout timeout;
+                while ((timeout = buckets[(int) (tick & WHEEL_MASK)]) != null) {
+                    remove(timeout);
+                    expired.add(timeout);
+                }
+            }
+        }
+
+        long nextTick() {
+            for (long tick = this.tick + 1; ; tick++) {
+                if (buckets[(int) (tick & WHEEL_MASK)] != null || upperCount > 0 && (tick & WHEEL_MASK) == 0) {
+                    return tick;
+                }
+            }
+        }
+
+        private void cascade(int bucket, Collection<Timeout> expired) {
+            Timeout timeout;
+            while ((timeout = buckets[bucket]) != null) {
+                remove(timeout);
+                if (timeout.deadline <= tick) {
+                    expired.add(timeout);
+                } else {
+                    add(timeout);
+                }
+            }
+        }
+    }
+
+    private final class Ticker implements Runnable {
+
+        private final Collection<Timeout> expired = new ArrayList<>();
+
+        Ticker() {
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                wakeTick = Long.MAX_VALUE;
+                long now = currentTick();
+                long next = Long.MAX_VALUE;
+                for (Shard shard : shards) {
+                    synchronized (shard) {
+                        shard.advance(now, expired);
+                        if (shard.count > 0) {
+                            next = Math.min(next, shard.nextTick());
+                        }
+                    }
+                }
+
+                for (Timeout timeout : expired) {
+                    try {
+                        timeout.expire();
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                }
+                expired.clear();
+
+                wakeTick = next;
+                if (next == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, startTime + next * TICK_NANOS - System.nanoTime());
+                }
+            }
+        }
+    }
+}
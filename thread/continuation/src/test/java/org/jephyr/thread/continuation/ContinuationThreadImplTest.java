@@ -0,0 +1,259 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.thread.continuation;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jephyr.thread.ThreadImpl;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ContinuationThreadImplTest {
+
+    private final TimingWheel timer = new TimingWheel(ContinuationThreadImplTest.class.getSimpleName() + "-timer");
+    private final TestThreadAccess threadAccess = new TestThreadAccess();
+    private ExecutorService scheduler;
+
+    @BeforeMethod
+    public void setUp() {
+        scheduler = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testRunNext() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            StringBuffer log = new StringBuffer();
+            CountDownLatch done = new CountDownLatch(3);
+            ThreadImpl b = newThreadImpl(new Runnable() {
+                @Override
+                public void run() {
+                    log.append('b');
+                    threadAccess.getImpl(this).park();
+                    log.append('b');
+                    done.countDown();
+                }
+            }, executor);
+            ThreadImpl a = newThreadImpl(() -> {
+                log.append('a');
+                b.unpark();
+                done.countDown();
+            }, executor);
+            ThreadImpl c = newThreadImpl(() -> {
+                log.append('c');
+                done.countDown();
+            }, executor);
+
+            b.start(true);
+            a.start(true);
+            c.start(true);
+
+            assertTrue(done.await(10, SECONDS));
+            assertEquals(log.toString(), "babc");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRunNextWhileWakerRuns() throws Exception {
+        AtomicReference<Thread> wakerCarrier = new AtomicReference<>();
+        AtomicReference<Thread> wokenCarrier = new AtomicReference<>();
+        CountDownLatch parked = new CountDownLatch(1);
+        CountDownLatch woken = new CountDownLatch(1);
+        ThreadImpl b = newThreadImpl(new Runnable() {
+            @Override
+            public void run() {
+                parked.countDown();
+                threadAccess.getImpl(this).park();
+                wokenCarrier.set(threadAccess.carriers.get(this));
+                woken.countDown();
+            }
+        }, scheduler);
+        CountDownLatch done = new CountDownLatch(1);
+        ThreadImpl a = newThreadImpl(new Runnable() {
+            @Override
+            public void run() {
+                wakerCarrier.set(threadAccess.carriers.get(this));
+                b.unpark();
+                try {
+                    if (woken.await(10, SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, scheduler);
+
+        b.start(true);
+        assertTrue(parked.await(10, SECONDS));
+        while (b.getState() != ThreadImpl.WAITING) {
+            Thread.yield();
+        }
+        a.start(true);
+
+        assertTrue(done.await(10, SECONDS));
+        assertNotSame(wokenCarrier.get(), wakerCarrier.get());
+    }
+
+    @Test
+    public void testAffinityWithBusyCarrier() throws Exception {
+        ExecutorService first = Executors.newSingleThreadExecutor();
+        ExecutorService second = Executors.newSingleThreadExecutor();
+        try {
+            AtomicReference<ExecutorService> target = new AtomicReference<>(first);
+            Executor scheduler = command -> target.get().execute(command);
+            AtomicReference<Thread> lastCarrier = new AtomicReference<>();
+            AtomicReference<Thread> wokenCarrier = new AtomicReference<>();
+            CountDownLatch parked = new CountDownLatch(1);
+            CountDownLatch woken = new CountDownLatch(1);
+            ThreadImpl a = newThreadImpl(new Runnable() {
+                @Override
+                public void run() {
+                    lastCarrier.set(threadAccess.carriers.get(this));
+                    parked.countDown();
+                    threadAccess.getImpl(this).park();
+                    wokenCarrier.set(threadAccess.carriers.get(this));
+                    woken.countDown();
+                }
+            }, scheduler, true);
+            CountDownLatch busy = new CountDownLatch(1);
+            ThreadImpl b = newThreadImpl(() -> {
+                busy.countDown();
+                try {
+                    woken.await(10, SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }, scheduler, true);
+
+            a.start(true);
+            assertTrue(parked.await(10, SECONDS));
+            while (a.getState() != ThreadImpl.WAITING) {
+                Thread.yield();
+            }
+            b.start(true);
+            assertTrue(busy.await(10, SECONDS));
+            target.set(second);
+            a.unpark();
+
+            assertTrue(woken.await(10, SECONDS));
+            assertNotSame(wokenCarrier.get(), lastCarrier.get());
+        } finally {
+            first.shutdownNow();
+            second.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAwaitThread() throws Exception {
+        CountDownLatch parked = new CountDownLatch(1);
+        ThreadImpl impl = newThreadImpl(new Runnable() {
+            @Override
+            public void run() {
+                parked.countDown();
+                threadAccess.getImpl(this).park();
+            }
+        }, scheduler);
+
+        impl.start(false);
+        assertTrue(parked.await(10, SECONDS));
+        Thread awaitThread = ContinuationThreadImpl.awaitThread.get();
+        assertNotNull(awaitThread);
+        assertTrue(awaitThread.isAlive());
+        assertFalse(awaitThread.isDaemon());
+
+        impl.unpark();
+        awaitThread.join(10000);
+        assertFalse(awaitThread.isAlive());
+        assertNull(ContinuationThreadImpl.awaitThread.get());
+        assertEquals(ContinuationThreadImpl.threadCount.get(), 0);
+    }
+
+    @Test
+    public void testConcurrentStartAndTerminate() throws Exception {
+        int starters = 4;
+        int threads = 1000;
+        CountDownLatch done = new CountDownLatch(starters * threads);
+        CountDownLatch started = new CountDownLatch(starters);
+        ExecutorService executor = Executors.newFixedThreadPool(starters);
+        try {
+            for (int i = 0; i < starters; i++) {
+                executor.execute(() -> {
+                    started.countDown();
+                    try {
+                        started.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    for (int j = 0; j < threads; j++) {
+                        newThreadImpl(done::countDown, scheduler).start(false);
+                    }
+                });
+            }
+            assertTrue(done.await(10, SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ContinuationThreadImpl.threadCount.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(ContinuationThreadImpl.threadCount.get(), 0);
+        Thread awaitThread = ContinuationThreadImpl.awaitThread.get();
+        if (awaitThread != null) {
+            awaitThread.join(10000);
+            assertFalse(awaitThread.isAlive());
+        }
+        assertNull(ContinuationThreadImpl.awaitThread.get());
+    }
+
+    private ThreadImpl newThreadImpl(Runnable thread, Executor scheduler) {
+        return newThreadImpl(thread, scheduler, false);
+    }
+
+    private ThreadImpl newThreadImpl(Runnable thread, Executor scheduler, boolean affinity) {
+        ThreadImpl impl = new ContinuationThreadImpl<>(thread, threadAccess, scheduler, timer, () -> {}, affinity);
+        threadAccess.impls.put(thread, impl);
+        return impl;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.thread.continuation;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.jephyr.thread.ThreadImpl;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertTrue;
+
+public class SchedulerProviderTest {
+
+    @Test
+    public void testProvider() {
+        assertTrue(SchedulerProvider.provider() instanceof TestSchedulerProvider);
+    }
+
+    @Test
+    public void testContinuationThreadImplProvider() throws Exception {
+        TestThreadAccess threadAccess = new TestThreadAccess();
+        CountDownLatch done = new CountDownLatch(1);
+        Runnable thread = done::countDown;
+        ThreadImpl impl = new ContinuationThreadImplProvider().createThreadImpl(thread, threadAccess, () -> {});
+        threadAccess.impls.put(thread, impl);
+        int executions = TestSchedulerProvider.executions.get();
+
+        impl.start(true);
+
+        assertTrue(done.await(10, SECONDS));
+        assertTrue(TestSchedulerProvider.executions.get() > executions);
+    }
+}
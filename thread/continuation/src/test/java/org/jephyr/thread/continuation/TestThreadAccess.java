@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.thread.continuation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jephyr.thread.ThreadAccess;
+import org.jephyr.thread.ThreadImpl;
+
+final class TestThreadAccess implements ThreadAccess<Runnable> {
+
+    final Map<Runnable, ThreadImpl> impls = new ConcurrentHashMap<>();
+    final Map<Runnable, Thread> carriers = new ConcurrentHashMap<>();
+    private final ThreadLocal<Runnable> currentThread = new ThreadLocal<>();
+
+    TestThreadAccess() {
+    }
+
+    @Override
+    public Runnable currentThread() {
+        return currentThread.get();
+    }
+
+    @Override
+    public void setCurrentThread(Runnable thread) {
+        currentThread.set(thread);
+        carriers.put(thread, Thread.currentThread());
+    }
+
+    @Override
+    public ThreadImpl getImpl(Runnable thread) {
+        return impls.get(thread);
+    }
+
+    @Override
+    public void dispatchUncaughtException(Runnable thread, Throwable e) {
+        e.printStackTrace();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.thread.continuation;
+
+import java.util.concurrent.Semaphore;
+
+import org.jephyr.continuation.Continuation;
+import org.jephyr.continuation.UnsuspendableError;
+
+import static java.util.Objects.requireNonNull;
+
+final class ThreadContinuation extends Continuation {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<ThreadContinuation> current = new ThreadLocal<>();
+    @SuppressWarnings("unchecked")
+    private static final ThreadLocal<Object> carriers =
+            (ThreadLocal<Object>) (ThreadLocal<?>) ContinuationThreadImpl.carriers;
+    private final transient Semaphore resumed = new Semaphore(0);
+    private final transient Semaphore suspended = new Semaphore(0);
+    private final transient Runnable target;
+    private transient Thread thread;
+    private transient boolean done;
+    private transient Throwable failure;
+    private transient Object carrier;
+
+    ThreadContinuation(Runnable target) {
+        this.target = requireNonNull(target);
+    }
+
+    public static void suspend() {
+        ThreadContinuation continuation = current.get();
+        if (continuation == null) {
+            throw new UnsuspendableError("not in a continuation");
+        }
+        continuation.suspended.release();
+        continuation.resumed.acquireUninterruptibly();
+        carriers.set(continuation.carrier);
+    }
+
+    @Override
+    public boolean resume() {
+        if (thread == null) {
+            thread = new Thread(this::run);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        carrier = carriers.get();
+        resumed.release();
+        suspended.acquireUninterruptibly();
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+        return !done;
+    }
+
+    private void run() {
+        current.set(this);
+        resumed.acquireUninterruptibly();
+        carriers.set(carrier);
+        try {
+            target.run();
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        done = true;
+        suspended.release();
+    }
+}
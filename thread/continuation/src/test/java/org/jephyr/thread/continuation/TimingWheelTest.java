@@ -0,0 +1,245 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Igor Konev
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.jephyr.thread.continuation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jephyr.thread.continuation.TimingWheel.Shard;
+import org.jephyr.thread.continuation.TimingWheel.Timeout;
+import org.testng.annotations.Test;
+
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testAddRemove() throws Exception {
+        Shard shard = new Shard();
+        TestTimeout timeout = newTimeout(10);
+
+        shard.add(timeout);
+        assertEquals(shard.count, 1);
+        assertEquals(timeout.bucket, 10);
+
+        shard.remove(timeout);
+        assertEquals(shard.count, 0);
+        assertEquals(timeout.bucket, -1);
+
+        List<Timeout> expired = new ArrayList<>();
+        shard.advance(20, expired);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void testAdvance() throws Exception {
+        Shard shard = new Shard();
+        TestTimeout timeout1 = newTimeout(1);
+        TestTimeout timeout2 = newTimeout(5);
+        TestTimeout timeout3 = newTimeout(255);
+        shard.add(timeout1);
+        shard.add(timeout2);
+        shard.add(timeout3);
+
+        List<Timeout> expired = new ArrayList<>();
+        shard.advance(5, expired);
+        assertEquals(expired.size(), 2);
+        assertTrue(expired.contains(timeout1));
+        assertTrue(expired.contains(timeout2));
+
+        expired.clear();
+        shard.advance(254, expired);
+        assertTrue(expired.isEmpty());
+        shard.advance(255, expired);
+        assertEquals(expired, singletonList(timeout3));
+        assertEquals(shard.count, 0);
+    }
+
+    @Test
+    public void testAddPastDeadline() throws Exception {
+        Shard shard = new Shard();
+        shard.tick = 100;
+        TestTimeout timeout = newTimeout(50);
+        shard.add(timeout);
+
+        List<Timeout> expired = new ArrayList<>();
+        shard.advance(101, expired);
+        assertEquals(expired, singletonList(timeout));
+    }
+
+    @Test
+    public void testCascade() throws Exception {
+        Shard shard = new Shard();
+        TestTimeout timeout1 = newTimeout(300);
+        TestTimeout timeout2 = newTimeout(70000);
+        shard.add(timeout1);
+        shard.add(timeout2);
+        assertTrue(timeout1.bucket >= TimingWheel.WHEEL_SIZE);
+        assertTrue(timeout2.bucket >= TimingWheel.WHEEL_SIZE * 2);
+        assertEquals(shard.nextTick(), 256);
+
+        List<Timeout> expired = new ArrayList<>();
+        shard.advance(299, expired);
+        assertTrue(expired.isEmpty());
+        assertTrue(timeout1.bucket < TimingWheel.WHEEL_SIZE);
+        shard.advance(300, expired);
+        assertEquals(expired, singletonList(timeout1));
+
+        expired.clear();
+        shard.advance(69999, expired);
+        assertTrue(expired.isEmpty());
+        assertTrue(timeout2.bucket < TimingWheel.WHEEL_SIZE);
+        shard.advance(70000, expired);
+        assertEquals(expired, singletonList(timeout2));
+        assertEquals(shard.count, 0);
+        assertEquals(shard.upperCount, 0);
+    }
+
+    @Test
+    public void testClampMaxDelta() throws Exception {
+        Shard shard = new Shard();
+        long deadline = TimingWheel.MAX_DELTA + 1000;
+        TestTimeout timeout = newTimeout(deadline);
+        shard.add(timeout);
+
+        List<Timeout> expired = new ArrayList<>();
+        shard.advance(TimingWheel.MAX_DELTA, expired);
+        assertTrue(expired.isEmpty());
+        assertEquals(shard.count, 1);
+        shard.advance(deadline - 1, expired);
+        assertTrue(expired.isEmpty());
+        shard.advance(deadline, expired);
+        assertEquals(expired, singletonList(timeout));
+    }
+
+    @Test
+    public void testNextTick() throws Exception {
+        Shard shard = new Shard();
+        shard.tick = 10;
+        shard.add(newTimeout(20));
+        assertEquals(shard.nextTick(), 20);
+
+        Shard shard1 = new Shard();
+        shard1.tick = 10;
+        shard1.add(newTimeout(1000));
+        assertEquals(shard1.nextTick(), 256);
+    }
+
+    @Test
+    public void testSchedule() throws Exception {
+        TimingWheel wheel = new TimingWheel("test-timer");
+        CountDownLatch latch = new CountDownLatch(2);
+        wheel.schedule(new LatchTimeout(latch), 5, TimeUnit.MILLISECONDS);
+        wheel.schedule(new LatchTimeout(latch), 1, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void testScheduleWhileParked() throws Exception {
+        TimingWheel wheel = new TimingWheel("test-timer");
+        wheel.schedule(newTimeout(0), 1, TimeUnit.HOURS);
+        Thread.sleep(10);
+        CountDownLatch latch = new CountDownLatch(1);
+        wheel.schedule(new LatchTimeout(latch), 1, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelRacingExpiry() throws Exception {
+        TimingWheel wheel = new TimingWheel("test-timer");
+        int threadCount = 4;
+        int iterations = 2000;
+        TestTimeout[] timeouts = new TestTimeout[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            TestTimeout timeout = newTimeout(0);
+            timeouts[i] = timeout;
+            threads[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int j = 0; j < iterations; j++) {
+                    wheel.schedule(timeout, 1, TimeUnit.MILLISECONDS);
+                    long deadline = System.nanoTime() + random.nextLong(TimeUnit.MILLISECONDS.toNanos(2));
+                    while (System.nanoTime() < deadline) {
+                        Thread.yield();
+                    }
+                    wheel.cancel(timeout);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Thread.sleep(10);
+
+        assertTrue(wheel.isEmpty());
+        for (TestTimeout timeout : timeouts) {
+            assertEquals(timeout.bucket, -1);
+            assertTrue(timeout.expirations.get() <= iterations);
+        }
+    }
+
+    private static TestTimeout newTimeout(long deadline) {
+        TestTimeout timeout = new TestTimeout();
+        timeout.deadline = deadline;
+        return timeout;
+    }
+
+    private static final class TestTimeout extends Timeout {
+
+        final AtomicInteger expirations = new AtomicInteger();
+
+        TestTimeout() {
+        }
+
+        @Override
+        void expire() {
+            expirations.incrementAndGet();
+        }
+    }
+
+    private static final class LatchTimeout extends Timeout {
+
+        private final CountDownLatch latch;
+
+        LatchTimeout(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        void expire() {
+            latch.countDown();
+        }
+    }
+}